@@ -0,0 +1,453 @@
+package com.martasim.datamgmt;
+
+import com.martasim.models.Bus;
+import com.martasim.models.Event;
+import com.martasim.models.Route;
+import com.martasim.models.Stop;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the calls of a Database in the background, so a simulation can keep computing while they run.
+ * Every method returns a CompletableFuture that completes once the call is done.
+ *
+ * Changes are queued to one writer thread, which takes everything that is queued and commits it in one
+ * transaction, so they are written in the order they were made. A change that fails only rolls back itself.
+ * Reads run on a pool of connections of their own and see every change whose future has completed,
+ * so wait for a change, e.g. with thenCompose, before reading what it wrote. The file is switched to
+ * write-ahead logging, so reads don't wait for commits.
+ *
+ * Objects passed to a change are copied before it is queued, so they can be changed again straight away.
+ * Buses and stops passed to an update are marked clean right away, since the copy holds their changed fields.
+ * Their futures complete on the writer thread, which doesn't touch them again, so after a failed update the
+ * caller has to mark the fields dirty again, e.g. with bus.markDirty(Bus.ALL_FIELDS), for a retry to write them.
+ * There are no streaming reads, since a stream would keep a pooled connection busy for as long as it is open.
+ */
+public class AsyncDatabase implements AutoCloseable {
+
+    /**
+     * A read to run on one of the pooled connections.
+     */
+    public interface Query<T> {
+        T run(Database database) throws SQLException;
+    }
+
+    static final int QUEUE_CAPACITY = 10000;
+    static final int MAX_BATCH = 1000;
+
+    private static final Write END = new Write(null);
+
+    private static class Write {
+        final Database.Transaction transaction;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Write(Database.Transaction transaction) {
+            this.transaction = transaction;
+        }
+    }
+
+    private final SQLiteDatabase writer;
+    private final BlockingQueue<Write> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writerThread;
+    private final ReadConnections readers;
+    private final ExecutorService readPool;
+    private boolean closed;
+
+    /**
+     * Opens one connection for writing and the given number of connections for reading.
+     *
+     * @param file of an existing database
+     * @param readThreads number of reads that can run at the same time
+     * @throws SQLException
+     */
+    public AsyncDatabase(File file, int readThreads) throws SQLException {
+        writer = new SQLiteDatabase(file);
+        writer.enableWriteAheadLog();
+        readers = new ReadConnections(file, readThreads);
+        readPool = Executors.newFixedThreadPool(readThreads, runnable -> {
+            Thread thread = new Thread(runnable, "database-reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writerThread = new Thread(this::drain, "database-writer");
+        writerThread.start();
+    }
+
+    /**
+     * Queues a change, waiting while the queue is full.
+     *
+     * @param transaction to run on the writer thread, together with the other queued changes
+     * @return future that completes once the change is committed
+     */
+    public synchronized CompletableFuture<Void> write(Database.Transaction transaction) {
+        Write write = new Write(transaction);
+        if (closed) {
+            write.future.completeExceptionally(new IllegalStateException("the database is closed"));
+            return write.future;
+        }
+        try {
+            queue.put(write);
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            write.future.completeExceptionally(interruptedException);
+        }
+        return write.future;
+    }
+
+    /**
+     * Runs a read on the next free read connection.
+     *
+     * @param query to run
+     * @return future of the query's result
+     */
+    public <T> CompletableFuture<T> read(Query<T> query) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        readPool.execute(() -> {
+            // the pool has one thread per reader, so there is always one free
+            ReadConnections.Reader reader;
+            try {
+                reader = readers.borrow();
+            } catch (SQLException sqlException) {
+                future.completeExceptionally(sqlException);
+                return;
+            }
+            try {
+                future.complete(query.run(reader.database));
+            } catch (SQLException | RuntimeException exception) {
+                future.completeExceptionally(exception);
+            } finally {
+                readers.giveBack(reader);
+            }
+        });
+        return future;
+    }
+
+    private void drain() {
+        List<Write> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException interruptedException) {
+                break;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            // END is queued last, so it can only be at the end of a batch
+            boolean end = batch.remove(END);
+            commit(batch);
+            batch.clear();
+            if (end) {
+                break;
+            }
+        }
+    }
+
+    private void commit(List<Write> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Exception> failures = new ArrayList<>(batch.size());
+        int clearsBefore = writer.getClears();
+        try {
+            writer.inTransaction(database -> {
+                for (Write write : batch) {
+                    try {
+                        database.inTransaction(write.transaction);
+                        failures.add(null);
+                    } catch (SQLException | RuntimeException exception) {
+                        failures.add(exception);
+                    }
+                }
+            });
+        } catch (SQLException | RuntimeException exception) {
+            for (Write write : batch) {
+                write.future.completeExceptionally(exception);
+            }
+            return;
+        }
+        if (writer.getClears() != clearsBefore) {
+            readers.cleared();
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            if (failures.get(i) == null) {
+                batch.get(i).future.complete(null);
+            } else {
+                batch.get(i).future.completeExceptionally(failures.get(i));
+            }
+        }
+    }
+
+    /**
+     * @return future that completes once every change queued so far is committed
+     */
+    public CompletableFuture<Void> flush() {
+        return write(database -> {
+        });
+    }
+
+    /**
+     * Waits for every queued change to be committed and every read to finish, then closes all connections.
+     *
+     * @throws SQLException
+     */
+    @Override
+    public void close() throws SQLException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        try {
+            queue.put(END);
+            writerThread.join();
+            readPool.shutdown();
+            readPool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        }
+        writer.close();
+        readers.close();
+    }
+
+    /**
+     * @return copy of the bus with the same changed fields, so writing it only writes those
+     */
+    private static Bus copy(Bus bus) {
+        Bus copy = new Bus(bus.getId(), bus.getRoute(), bus.isOutbound(), bus.getCurrentStopIndex(), bus.getLatitude(),
+                bus.getLongitude(), bus.getPassengers(), bus.getPassengerCapacity(), bus.getFuel(),
+                bus.getFuelCapacity(), bus.getSpeed());
+        copy.markClean();
+        copy.markDirty(bus.getDirtyFields());
+        return copy;
+    }
+
+    private static Event copy(Event event) {
+        return new Event(event.getBusId(), event.getStopId(), event.getArrivalTime(), event.getDepartureTime());
+    }
+
+    private static Route copy(Route route) {
+        return new Route(route.getId(), route.getShortName(), route.getName(), new ArrayList<>(route.getStops()));
+    }
+
+    /**
+     * @return copy of the stop with the same changed fields, so writing it only writes those
+     */
+    private static Stop copy(Stop stop) {
+        Stop copy = new Stop(stop.getId(), stop.getName(), stop.getRiders(), stop.getPreviousRiders(),
+                stop.getLatitude(), stop.getLongitude());
+        copy.markClean();
+        copy.markDirty(stop.getDirtyFields());
+        return copy;
+    }
+
+    public CompletableFuture<Void> clear() {
+        return write(Database::clear);
+    }
+
+    public CompletableFuture<Void> addBus(Bus bus) {
+        Bus copy = copy(bus);
+        return write(database -> database.addBus(copy));
+    }
+
+    public CompletableFuture<Void> addEvent(Event event) {
+        Event copy = copy(event);
+        return write(database -> database.addEvent(copy));
+    }
+
+    public CompletableFuture<Void> addEvents(Collection<Event> events) {
+        List<Event> copies = new ArrayList<>(events.size());
+        for (Event event : events) {
+            copies.add(copy(event));
+        }
+        return write(database -> database.addEvents(copies));
+    }
+
+    public CompletableFuture<Void> addRoute(Route route) {
+        Route copy = copy(route);
+        return write(database -> database.addRoute(copy));
+    }
+
+    public CompletableFuture<Void> addStop(Stop stop) {
+        Stop copy = copy(stop);
+        return write(database -> database.addStop(copy));
+    }
+
+    /**
+     * Marks the bus clean, like Database.updateBus, since the queued copy holds its changed fields.
+     * If the returned future fails, mark them dirty again before retrying.
+     */
+    public CompletableFuture<Void> updateBus(Bus bus) {
+        Bus copy = copy(bus);
+        bus.markClean();
+        return write(database -> database.updateBus(copy));
+    }
+
+    /**
+     * Like updateBus for every bus.
+     */
+    public CompletableFuture<Void> updateBuses(Collection<Bus> buses) {
+        List<Bus> copies = new ArrayList<>(buses.size());
+        for (Bus bus : buses) {
+            copies.add(copy(bus));
+            bus.markClean();
+        }
+        return write(database -> database.updateBuses(copies));
+    }
+
+    public CompletableFuture<Void> updateEvent(Event oldEvent, Event newEvent) {
+        Event oldCopy = copy(oldEvent);
+        Event newCopy = copy(newEvent);
+        return write(database -> database.updateEvent(oldCopy, newCopy));
+    }
+
+    public CompletableFuture<Void> updateRoute(Route route) {
+        Route copy = copy(route);
+        return write(database -> database.updateRoute(copy));
+    }
+
+    /**
+     * Adds the stop to the route straight away, like Database.extendRoute, and queues writing it.
+     */
+    public CompletableFuture<Void> extendRoute(Route route, Stop stop) {
+        Route routeCopy = copy(route);
+        Stop stopCopy = copy(stop);
+        route.extend(stop);
+        return write(database -> database.extendRoute(routeCopy, stopCopy));
+    }
+
+    /**
+     * Marks the stop clean, like Database.updateStop, since the queued copy holds its changed fields.
+     * If the returned future fails, mark them dirty again before retrying.
+     */
+    public CompletableFuture<Void> updateStop(Stop stop) {
+        Stop copy = copy(stop);
+        stop.markClean();
+        return write(database -> database.updateStop(copy));
+    }
+
+    /**
+     * Like updateStop for every stop.
+     */
+    public CompletableFuture<Void> updateStops(Collection<Stop> stops) {
+        List<Stop> copies = new ArrayList<>(stops.size());
+        for (Stop stop : stops) {
+            copies.add(copy(stop));
+            stop.markClean();
+        }
+        return write(database -> database.updateStops(copies));
+    }
+
+    public CompletableFuture<Void> removeBus(Bus bus) {
+        Bus copy = copy(bus);
+        return write(database -> database.removeBus(copy));
+    }
+
+    public CompletableFuture<Void> removeEvent(Event event) {
+        Event copy = copy(event);
+        return write(database -> database.removeEvent(copy));
+    }
+
+    public CompletableFuture<Void> removeEvents(Collection<Event> events) {
+        List<Event> copies = new ArrayList<>(events.size());
+        for (Event event : events) {
+            copies.add(copy(event));
+        }
+        return write(database -> database.removeEvents(copies));
+    }
+
+    public CompletableFuture<Void> removeRoute(Route route) {
+        Route copy = copy(route);
+        return write(database -> database.removeRoute(copy));
+    }
+
+    /**
+     * Removes the stop from the route straight away, like Database.removeFromRoute, and queues writing it.
+     */
+    public CompletableFuture<Void> removeFromRoute(Route route, Stop stop) {
+        route.getStops().remove(stop);
+        return removeFromRoute(route.getId(), stop.getId());
+    }
+
+    public CompletableFuture<Void> removeFromRoute(String routeId, String stopId) {
+        return write(database -> database.removeFromRoute(routeId, stopId));
+    }
+
+    public CompletableFuture<Void> removeStop(Stop stop) {
+        return removeStop(stop.getId());
+    }
+
+    public CompletableFuture<Void> removeStop(String stopId) {
+        return write(database -> database.removeStop(stopId));
+    }
+
+    public CompletableFuture<Bus> getBus(String id) {
+        return read(database -> database.getBus(id));
+    }
+
+    public CompletableFuture<Route> getRoute(String id) {
+        return read(database -> database.getRoute(id));
+    }
+
+    public CompletableFuture<Stop> getStop(String id) {
+        return read(database -> database.getStop(id));
+    }
+
+    public CompletableFuture<Collection<Bus>> getAllBuses() {
+        return read(Database::getAllBuses);
+    }
+
+    public CompletableFuture<Collection<Bus>> getAllBuses(String routeId) {
+        return read(database -> database.getAllBuses(routeId));
+    }
+
+    public CompletableFuture<Collection<Event>> getAllEvents() {
+        return read(Database::getAllEvents);
+    }
+
+    public CompletableFuture<Collection<Event>> getAllEventsWithBusId(String busId) {
+        return read(database -> database.getAllEventsWithBusId(busId));
+    }
+
+    public CompletableFuture<Collection<Event>> getAllEventsWithStopId(String stopId) {
+        return read(database -> database.getAllEventsWithStopId(stopId));
+    }
+
+    public CompletableFuture<Collection<Event>> getAllEventsWithArrivalTime(int arrivalTime) {
+        return read(database -> database.getAllEventsWithArrivalTime(arrivalTime));
+    }
+
+    public CompletableFuture<List<Event>> getAllEventsWithArrivalTime(int from, int to) {
+        return read(database -> database.getAllEventsWithArrivalTime(from, to));
+    }
+
+    public CompletableFuture<List<Event>> getEventPage(int from, int to, String stopId, String routeId, Event after, int limit) {
+        Event copy = after == null ? null : copy(after);
+        return read(database -> database.getEventPage(from, to, stopId, routeId, copy, limit));
+    }
+
+    public CompletableFuture<Collection<Event>> getAllEventsWithDepartureTime(int departureTime) {
+        return read(database -> database.getAllEventsWithDepartureTime(departureTime));
+    }
+
+    public CompletableFuture<Collection<Route>> getAllRoutes() {
+        return read(Database::getAllRoutes);
+    }
+
+    public CompletableFuture<Collection<Stop>> getAllStops() {
+        return read(Database::getAllStops);
+    }
+
+    public CompletableFuture<List<Stop>> getAllStops(String routeId) {
+        return read(database -> database.getAllStops(routeId));
+    }
+}
@@ -0,0 +1,360 @@
+package com.martasim.datamgmt;
+
+import com.martasim.models.Bus;
+import com.martasim.models.Event;
+import com.martasim.models.Route;
+import com.martasim.models.Stop;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Wraps a Database and keeps the stops and routes that were read most recently, since they are read
+ * over and over during a simulation but hardly ever change.
+ *
+ * Once a cache is full, the stop or route that was not read for the longest time is dropped.
+ * Every change of a stop or route through this Database drops the cached copies it affects, including routes
+ * that contain a changed stop. Changes made to the wrapped Database directly are not seen.
+ * Like the wrapped Database, reads return new objects, so changing them doesn't change the cache.
+ */
+public class CachingDatabase implements Database {
+
+    private final Database database;
+    private final Map<String, Stop> stops;
+    private final Map<String, Route> routes;
+
+    private long stopHits;
+    private long stopMisses;
+    private long routeHits;
+    private long routeMisses;
+
+    /**
+     * @param database to read from on a miss and to write changes to
+     * @param maxStops number of stops to keep at most
+     * @param maxRoutes number of routes to keep at most
+     */
+    public CachingDatabase(Database database, int maxStops, int maxRoutes) {
+        this.database = database;
+        stops = createCache(maxStops);
+        routes = createCache(maxRoutes);
+    }
+
+    private static <V> Map<String, V> createCache(int maxSize) {
+        return new LinkedHashMap<String, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public long getStopHits() {
+        return stopHits;
+    }
+
+    public long getStopMisses() {
+        return stopMisses;
+    }
+
+    public long getRouteHits() {
+        return routeHits;
+    }
+
+    public long getRouteMisses() {
+        return routeMisses;
+    }
+
+    private static Stop copy(Stop stop) {
+        Stop copy = new Stop(stop.getId(), stop.getName(), stop.getRiders(), stop.getPreviousRiders(),
+                stop.getLatitude(), stop.getLongitude());
+        // a stop read from the wrapped Database stays clean, so updating an unchanged one is still skipped
+        if (stop.getDirtyFields() == 0) {
+            copy.markClean();
+        }
+        return copy;
+    }
+
+    private static Route copy(Route route) {
+        List<Stop> stops = new ArrayList<>(route.getStops().size());
+        for (Stop stop : route.getStops()) {
+            stops.add(copy(stop));
+        }
+        return new Route(route.getId(), route.getShortName(), route.getName(), stops);
+    }
+
+    private void invalidateStop(String stopId) {
+        stops.remove(stopId);
+        Iterator<Route> iterator = routes.values().iterator();
+        while (iterator.hasNext()) {
+            for (Stop stop : iterator.next().getStops()) {
+                if (stop.getId().equals(stopId)) {
+                    iterator.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void clear() throws SQLException {
+        stops.clear();
+        routes.clear();
+        database.clear();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        database.close();
+    }
+
+    /**
+     * Runs the transaction on this Database, so the cache sees its changes. If it throws, the whole cache is dropped,
+     * since it may hold stops or routes that were rolled back.
+     */
+    @Override
+    public void inTransaction(Transaction transaction) throws SQLException {
+        try {
+            database.inTransaction(database -> transaction.run(this));
+        } catch (SQLException | RuntimeException exception) {
+            stops.clear();
+            routes.clear();
+            throw exception;
+        }
+    }
+
+    @Override
+    public void addBus(Bus bus) throws SQLException {
+        database.addBus(bus);
+    }
+
+    @Override
+    public void addEvent(Event event) throws SQLException {
+        database.addEvent(event);
+    }
+
+    @Override
+    public void addEvents(Collection<Event> events) throws SQLException {
+        database.addEvents(events);
+    }
+
+    @Override
+    public void addRoute(Route route) throws SQLException {
+        routes.remove(route.getId());
+        database.addRoute(route);
+    }
+
+    @Override
+    public void addStop(Stop stop) throws SQLException {
+        invalidateStop(stop.getId());
+        database.addStop(stop);
+    }
+
+    @Override
+    public void updateBus(Bus bus) throws SQLException {
+        database.updateBus(bus);
+    }
+
+    @Override
+    public void updateBuses(Collection<Bus> buses) throws SQLException {
+        database.updateBuses(buses);
+    }
+
+    @Override
+    public void updateEvent(Event oldEvent, Event newEvent) throws SQLException {
+        database.updateEvent(oldEvent, newEvent);
+    }
+
+    @Override
+    public void updateRoute(Route route) throws SQLException {
+        routes.remove(route.getId());
+        database.updateRoute(route);
+    }
+
+    @Override
+    public void extendRoute(Route route, Stop stop) throws SQLException {
+        routes.remove(route.getId());
+        database.extendRoute(route, stop);
+    }
+
+    @Override
+    public void updateStop(Stop stop) throws SQLException {
+        invalidateStop(stop.getId());
+        database.updateStop(stop);
+    }
+
+    @Override
+    public void updateStops(Collection<Stop> stops) throws SQLException {
+        for (Stop stop : stops) {
+            invalidateStop(stop.getId());
+        }
+        database.updateStops(stops);
+    }
+
+    @Override
+    public Bus getBus(String id) throws SQLException {
+        return database.getBus(id);
+    }
+
+    @Override
+    public Route getRoute(String id) throws SQLException {
+        Route route = routes.get(id);
+        if (route != null) {
+            routeHits++;
+            return copy(route);
+        }
+        routeMisses++;
+        route = database.getRoute(id);
+        if (route != null) {
+            routes.put(id, copy(route));
+        }
+        return route;
+    }
+
+    @Override
+    public Stop getStop(String id) throws SQLException {
+        Stop stop = stops.get(id);
+        if (stop != null) {
+            stopHits++;
+            return copy(stop);
+        }
+        stopMisses++;
+        stop = database.getStop(id);
+        if (stop != null) {
+            stops.put(id, copy(stop));
+        }
+        return stop;
+    }
+
+    @Override
+    public Collection<Bus> getAllBuses() throws SQLException {
+        return database.getAllBuses();
+    }
+
+    @Override
+    public Collection<Bus> getAllBuses(String routeId) throws SQLException {
+        return database.getAllBuses(routeId);
+    }
+
+    @Override
+    public Stream<Bus> streamAllBuses() throws SQLException {
+        return database.streamAllBuses();
+    }
+
+    @Override
+    public Collection<Event> getAllEvents() throws SQLException {
+        return database.getAllEvents();
+    }
+
+    @Override
+    public Stream<Event> streamAllEvents() throws SQLException {
+        return database.streamAllEvents();
+    }
+
+    @Override
+    public Collection<Event> getAllEventsWithBusId(String busId) throws SQLException {
+        return database.getAllEventsWithBusId(busId);
+    }
+
+    @Override
+    public Collection<Event> getAllEventsWithStopId(String stopId) throws SQLException {
+        return database.getAllEventsWithStopId(stopId);
+    }
+
+    @Override
+    public Collection<Event> getAllEventsWithArrivalTime(int arrivalTime) throws SQLException {
+        return database.getAllEventsWithArrivalTime(arrivalTime);
+    }
+
+    @Override
+    public List<Event> getAllEventsWithArrivalTime(int from, int to) throws SQLException {
+        return database.getAllEventsWithArrivalTime(from, to);
+    }
+
+    @Override
+    public List<Event> getEventPage(int from, int to, String stopId, String routeId, Event after, int limit) throws SQLException {
+        return database.getEventPage(from, to, stopId, routeId, after, limit);
+    }
+
+    @Override
+    public Collection<Event> getAllEventsWithDepartureTime(int departureTime) throws SQLException {
+        return database.getAllEventsWithDepartureTime(departureTime);
+    }
+
+    @Override
+    public Collection<Route> getAllRoutes() throws SQLException {
+        return database.getAllRoutes();
+    }
+
+    @Override
+    public Collection<Stop> getAllStops() throws SQLException {
+        return database.getAllStops();
+    }
+
+    @Override
+    public Stream<Stop> streamAllStops() throws SQLException {
+        return database.streamAllStops();
+    }
+
+    /**
+     * Served from the cached route if there is one.
+     */
+    @Override
+    public List<Stop> getAllStops(String routeId) throws SQLException {
+        Route route = routes.get(routeId);
+        if (route != null) {
+            routeHits++;
+            return copy(route).getStops();
+        }
+        return database.getAllStops(routeId);
+    }
+
+    @Override
+    public void removeBus(Bus bus) throws SQLException {
+        database.removeBus(bus);
+    }
+
+    @Override
+    public void removeEvent(Event event) throws SQLException {
+        database.removeEvent(event);
+    }
+
+    @Override
+    public void removeEvents(Collection<Event> events) throws SQLException {
+        database.removeEvents(events);
+    }
+
+    @Override
+    public void removeRoute(Route route) throws SQLException {
+        routes.remove(route.getId());
+        database.removeRoute(route);
+    }
+
+    @Override
+    public void removeFromRoute(Route route, Stop stop) throws SQLException {
+        routes.remove(route.getId());
+        database.removeFromRoute(route, stop);
+    }
+
+    @Override
+    public void removeFromRoute(String routeId, String stopId) throws SQLException {
+        routes.remove(routeId);
+        database.removeFromRoute(routeId, stopId);
+    }
+
+    @Override
+    public void removeStop(Stop stop) throws SQLException {
+        removeStop(stop.getId());
+    }
+
+    @Override
+    public void removeStop(String stopId) throws SQLException {
+        invalidateStop(stopId);
+        database.removeStop(stopId);
+    }
+}
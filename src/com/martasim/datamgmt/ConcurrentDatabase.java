@@ -0,0 +1,336 @@
+package com.martasim.datamgmt;
+
+import com.martasim.models.Bus;
+import com.martasim.models.Event;
+import com.martasim.models.Route;
+import com.martasim.models.Stop;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A Database file that can be used from several threads at once, e.g. a simulation writing while
+ * a visualizer reads.
+ *
+ * The file is switched to write-ahead logging, which lets connections read while another one writes.
+ * Changes go through one connection, one at a time. Reads borrow one of a fixed number of read-only connections,
+ * and wait for one to be returned if all are in use. A stream holds on to its connection until it was read to
+ * the end or is closed. A read sees every change that finished before it started.
+ * Inside inTransaction every call goes to the writing connection, so the transaction reads its own changes.
+ */
+public class ConcurrentDatabase implements Database {
+
+    private interface Read<T> {
+        T run(SQLiteDatabase database) throws SQLException;
+    }
+
+    private final SQLiteDatabase writer;
+    private final ReadConnections readers;
+    /**
+     * Number of calls to inTransaction that have not returned yet, guarded by the lock on writer.
+     */
+    private int transactions;
+
+    /**
+     * @param file of an existing database
+     * @param readConnections number of reads that can run at the same time
+     * @throws SQLException
+     */
+    public ConcurrentDatabase(File file, int readConnections) throws SQLException {
+        writer = new SQLiteDatabase(file);
+        writer.enableWriteAheadLog();
+        readers = new ReadConnections(file, readConnections);
+    }
+
+    private <T> T read(Read<T> read) throws SQLException {
+        ReadConnections.Reader reader = readers.borrow();
+        try {
+            return read.run(reader.database);
+        } finally {
+            readers.giveBack(reader);
+        }
+    }
+
+    /**
+     * The read connection is returned once the stream was read to the end or is closed, whichever comes first.
+     */
+    private <T> Stream<T> stream(Read<Stream<T>> read) throws SQLException {
+        ReadConnections.Reader reader = readers.borrow();
+        Stream<T> rows;
+        try {
+            rows = read.run(reader.database);
+        } catch (SQLException | RuntimeException exception) {
+            readers.giveBack(reader);
+            throw exception;
+        }
+
+        AtomicBoolean returned = new AtomicBoolean();
+        Runnable giveBack = () -> {
+            if (returned.compareAndSet(false, true)) {
+                rows.close();
+                readers.giveBack(reader);
+            }
+        };
+        Iterator<T> iterator = rows.iterator();
+        Iterator<T> returning = new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                boolean hasNext = !returned.get() && iterator.hasNext();
+                if (!hasNext) {
+                    giveBack.run();
+                }
+                return hasNext;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return iterator.next();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(returning, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(giveBack);
+    }
+
+    private void write(Transaction write) throws SQLException {
+        synchronized (writer) {
+            write.run(writer);
+        }
+    }
+
+    /**
+     * A clear inside the transaction is only passed on to the read connections once the transaction is committed.
+     */
+    @Override
+    public void inTransaction(Transaction transaction) throws SQLException {
+        synchronized (writer) {
+            int clearsBefore = writer.getClears();
+            transactions++;
+            try {
+                writer.inTransaction(transaction);
+            } finally {
+                transactions--;
+            }
+            if (transactions == 0 && writer.getClears() != clearsBefore) {
+                readers.cleared();
+            }
+        }
+    }
+
+    @Override
+    public void clear() throws SQLException {
+        inTransaction(Database::clear);
+    }
+
+    /**
+     * Waits for every read connection to be returned, then closes all connections.
+     */
+    @Override
+    public void close() throws SQLException {
+        synchronized (writer) {
+            writer.close();
+        }
+        readers.close();
+    }
+
+    @Override
+    public void addBus(Bus bus) throws SQLException {
+        write(database -> database.addBus(bus));
+    }
+
+    @Override
+    public void addEvent(Event event) throws SQLException {
+        write(database -> database.addEvent(event));
+    }
+
+    @Override
+    public void addEvents(Collection<Event> events) throws SQLException {
+        write(database -> database.addEvents(events));
+    }
+
+    @Override
+    public void addRoute(Route route) throws SQLException {
+        write(database -> database.addRoute(route));
+    }
+
+    @Override
+    public void addStop(Stop stop) throws SQLException {
+        write(database -> database.addStop(stop));
+    }
+
+    @Override
+    public void updateBus(Bus bus) throws SQLException {
+        write(database -> database.updateBus(bus));
+    }
+
+    @Override
+    public void updateBuses(Collection<Bus> buses) throws SQLException {
+        write(database -> database.updateBuses(buses));
+    }
+
+    @Override
+    public void updateEvent(Event oldEvent, Event newEvent) throws SQLException {
+        write(database -> database.updateEvent(oldEvent, newEvent));
+    }
+
+    @Override
+    public void updateRoute(Route route) throws SQLException {
+        write(database -> database.updateRoute(route));
+    }
+
+    @Override
+    public void extendRoute(Route route, Stop stop) throws SQLException {
+        write(database -> database.extendRoute(route, stop));
+    }
+
+    @Override
+    public void updateStop(Stop stop) throws SQLException {
+        write(database -> database.updateStop(stop));
+    }
+
+    @Override
+    public void updateStops(Collection<Stop> stops) throws SQLException {
+        write(database -> database.updateStops(stops));
+    }
+
+    @Override
+    public Bus getBus(String id) throws SQLException {
+        return read(database -> database.getBus(id));
+    }
+
+    @Override
+    public Route getRoute(String id) throws SQLException {
+        return read(database -> database.getRoute(id));
+    }
+
+    @Override
+    public Stop getStop(String id) throws SQLException {
+        return read(database -> database.getStop(id));
+    }
+
+    @Override
+    public Collection<Bus> getAllBuses() throws SQLException {
+        return read(SQLiteDatabase::getAllBuses);
+    }
+
+    @Override
+    public Collection<Bus> getAllBuses(String routeId) throws SQLException {
+        return read(database -> database.getAllBuses(routeId));
+    }
+
+    @Override
+    public Stream<Bus> streamAllBuses() throws SQLException {
+        return stream(SQLiteDatabase::streamAllBuses);
+    }
+
+    @Override
+    public Collection<Event> getAllEvents() throws SQLException {
+        return read(SQLiteDatabase::getAllEvents);
+    }
+
+    @Override
+    public Stream<Event> streamAllEvents() throws SQLException {
+        return stream(SQLiteDatabase::streamAllEvents);
+    }
+
+    @Override
+    public Collection<Event> getAllEventsWithBusId(String busId) throws SQLException {
+        return read(database -> database.getAllEventsWithBusId(busId));
+    }
+
+    @Override
+    public Collection<Event> getAllEventsWithStopId(String stopId) throws SQLException {
+        return read(database -> database.getAllEventsWithStopId(stopId));
+    }
+
+    @Override
+    public Collection<Event> getAllEventsWithArrivalTime(int arrivalTime) throws SQLException {
+        return read(database -> database.getAllEventsWithArrivalTime(arrivalTime));
+    }
+
+    @Override
+    public List<Event> getAllEventsWithArrivalTime(int from, int to) throws SQLException {
+        return read(database -> database.getAllEventsWithArrivalTime(from, to));
+    }
+
+    @Override
+    public List<Event> getEventPage(int from, int to, String stopId, String routeId, Event after, int limit) throws SQLException {
+        return read(database -> database.getEventPage(from, to, stopId, routeId, after, limit));
+    }
+
+    @Override
+    public Collection<Event> getAllEventsWithDepartureTime(int departureTime) throws SQLException {
+        return read(database -> database.getAllEventsWithDepartureTime(departureTime));
+    }
+
+    @Override
+    public Collection<Route> getAllRoutes() throws SQLException {
+        return read(SQLiteDatabase::getAllRoutes);
+    }
+
+    @Override
+    public Collection<Stop> getAllStops() throws SQLException {
+        return read(SQLiteDatabase::getAllStops);
+    }
+
+    @Override
+    public Stream<Stop> streamAllStops() throws SQLException {
+        return stream(SQLiteDatabase::streamAllStops);
+    }
+
+    @Override
+    public List<Stop> getAllStops(String routeId) throws SQLException {
+        return read(database -> database.getAllStops(routeId));
+    }
+
+    @Override
+    public void removeBus(Bus bus) throws SQLException {
+        write(database -> database.removeBus(bus));
+    }
+
+    @Override
+    public void removeEvent(Event event) throws SQLException {
+        write(database -> database.removeEvent(event));
+    }
+
+    @Override
+    public void removeEvents(Collection<Event> events) throws SQLException {
+        write(database -> database.removeEvents(events));
+    }
+
+    @Override
+    public void removeRoute(Route route) throws SQLException {
+        write(database -> database.removeRoute(route));
+    }
+
+    @Override
+    public void removeFromRoute(Route route, Stop stop) throws SQLException {
+        write(database -> database.removeFromRoute(route, stop));
+    }
+
+    @Override
+    public void removeFromRoute(String routeId, String stopId) throws SQLException {
+        write(database -> database.removeFromRoute(routeId, stopId));
+    }
+
+    @Override
+    public void removeStop(Stop stop) throws SQLException {
+        write(database -> database.removeStop(stop));
+    }
+
+    @Override
+    public void removeStop(String stopId) throws SQLException {
+        write(database -> database.removeStop(stopId));
+    }
+}
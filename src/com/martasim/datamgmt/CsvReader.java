@@ -0,0 +1,373 @@
+package com.martasim.datamgmt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streaming RFC 4180 reader for the comma separated files inside a GTFS feed.
+ *
+ * The reader keeps a single character buffer for the current record and only remembers where each field
+ * starts and ends, so reading a row does not allocate. Fields are handed back either as primitives or as
+ * reused CharSequences that are only valid until the next call to {@link #next()}.
+ */
+class CsvReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    private char[] record = new char[256];
+    private int recordLength;
+    private int[] fieldStart = new int[16];
+    private int[] fieldEnd = new int[16];
+    private int fieldCount;
+    private Field[] fields = new Field[16];
+
+    private final Map<String, Integer> columns = new HashMap<>();
+
+    /**
+     * Creates a reader over a UTF-8 encoded stream and consumes its header row.
+     *
+     * @param inputStream containing the csv file
+     * @throws IOException
+     */
+    CsvReader(InputStream inputStream) throws IOException {
+        this(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+    }
+
+    CsvReader(Reader reader) throws IOException {
+        this.reader = reader;
+        if (next()) {
+            for (int i = 0; i < fieldCount; i++) {
+                String label = getString(i).trim();
+                if (i == 0 && !label.isEmpty() && label.charAt(0) == '\uFEFF') {
+                    label = label.substring(1);
+                }
+                columns.put(label, i);
+            }
+        }
+    }
+
+    /**
+     * @param label of the column in the header row
+     * @return the index of the column, or -1 if the file does not have that column, which reads as empty fields
+     */
+    int getColumn(String label) {
+        return columns.getOrDefault(label, -1);
+    }
+
+    /**
+     * @param label of the column in the header row
+     * @return the index of the column
+     * @throws IOException if the file does not have that column
+     */
+    int getRequiredColumn(String label) throws IOException {
+        Integer column = columns.get(label);
+        if (column == null) {
+            throw new IOException("missing required column " + label);
+        }
+        return column;
+    }
+
+    /**
+     * Advances to the next record, skipping blank lines.
+     *
+     * @return false once the end of the file is reached
+     * @throws IOException
+     */
+    boolean next() throws IOException {
+        do {
+            if (!readRecord()) {
+                return false;
+            }
+        } while (fieldCount == 1 && fieldStart[0] == fieldEnd[0]);
+        return true;
+    }
+
+    int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @param column index of the field
+     * @return a view of the field that is only valid until the next call to next()
+     */
+    CharSequence getField(int column) {
+        if (column < 0) {
+            return "";
+        }
+        if (fields.length < fieldStart.length) {
+            fields = Arrays.copyOf(fields, fieldStart.length);
+        }
+        Field field = fields[column];
+        if (field == null) {
+            field = fields[column] = new Field(column);
+        }
+        return field;
+    }
+
+    String getString(int column) {
+        if (!hasField(column)) {
+            return "";
+        }
+        return new String(record, fieldStart[column], fieldEnd[column] - fieldStart[column]);
+    }
+
+    boolean isEmpty(int column) {
+        return !hasField(column) || fieldStart[column] == fieldEnd[column];
+    }
+
+    boolean fieldEquals(int column, String value) {
+        int start = hasField(column) ? fieldStart[column] : 0;
+        int length = hasField(column) ? fieldEnd[column] - start : 0;
+        if (length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (record[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param column index of the field
+     * @return the field parsed as an int
+     * @throws NumberFormatException if the field is not an integer
+     */
+    int getInt(int column) {
+        int start = trimmedStart(column);
+        int end = trimmedEnd(column);
+        if (start >= end) {
+            throw new NumberFormatException("empty field in column " + column);
+        }
+        boolean negative = record[start] == '-';
+        if (negative || record[start] == '+') {
+            start++;
+        }
+        if (start == end) {
+            throw new NumberFormatException(getString(column));
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = record[i] - '0';
+            if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE) {
+                throw new NumberFormatException(getString(column));
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException(getString(column));
+        }
+        return (int) value;
+    }
+
+    /**
+     * Parses plain decimal numbers such as coordinates without allocating. Anything else, like exponents,
+     * falls back to Double.parseDouble so the result is always identical to it.
+     *
+     * @param column index of the field
+     * @return the field parsed as a double
+     * @throws NumberFormatException if the field is not a number
+     */
+    double getDouble(int column) {
+        int start = trimmedStart(column);
+        int end = trimmedEnd(column);
+        int i = start;
+        boolean negative = i < end && record[i] == '-';
+        if (negative || (i < end && record[i] == '+')) {
+            i++;
+        }
+
+        long mantissa = 0;
+        int significantDigits = 0;
+        int decimals = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+        for (; i < end; i++) {
+            char c = record[i];
+            if (c == '.' && !seenPoint) {
+                seenPoint = true;
+            } else if (c >= '0' && c <= '9' && significantDigits < 15) {
+                seenDigit = true;
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0) {
+                    significantDigits++;
+                }
+                if (seenPoint) {
+                    decimals++;
+                }
+            } else {
+                break;
+            }
+        }
+
+        // below 10^15 the mantissa and the power of ten are exact doubles, so one division rounds correctly
+        if (i < end || !seenDigit || decimals >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(new String(record, start, end - start));
+        }
+        double value = mantissa / POWERS_OF_TEN[decimals];
+        return negative ? -value : value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * A column past the end of a short record, or a column the file does not have (-1), reads as an empty field.
+     */
+    private boolean hasField(int column) {
+        return column >= 0 && column < fieldCount;
+    }
+
+    private int trimmedStart(int column) {
+        if (!hasField(column)) {
+            return 0;
+        }
+        int start = fieldStart[column];
+        while (start < fieldEnd[column] && record[start] == ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private int trimmedEnd(int column) {
+        if (!hasField(column)) {
+            return 0;
+        }
+        int end = fieldEnd[column];
+        while (end > fieldStart[column] && record[end - 1] == ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    private boolean fill() throws IOException {
+        int read = reader.read(buffer, 0, buffer.length);
+        while (read == 0) {
+            read = reader.read(buffer, 0, buffer.length);
+        }
+        position = 0;
+        limit = Math.max(read, 0);
+        return read > 0;
+    }
+
+    private void append(char c) {
+        if (recordLength == record.length) {
+            record = Arrays.copyOf(record, record.length * 2);
+        }
+        record[recordLength++] = c;
+    }
+
+    private void endField() {
+        fieldEnd[fieldCount++] = recordLength;
+        if (fieldCount == fieldStart.length) {
+            fieldStart = Arrays.copyOf(fieldStart, fieldCount * 2);
+            fieldEnd = Arrays.copyOf(fieldEnd, fieldCount * 2);
+        }
+        fieldStart[fieldCount] = recordLength;
+    }
+
+    private boolean readRecord() throws IOException {
+        recordLength = 0;
+        fieldCount = 0;
+        fieldStart[0] = 0;
+
+        if (position >= limit && !fill()) {
+            return false;
+        }
+
+        boolean quoted = false;
+        boolean afterQuote = false;
+        while (true) {
+            if (position >= limit && !fill()) {
+                endField();
+                return true;
+            }
+            char c = buffer[position++];
+
+            if (quoted) {
+                if (c == '"') {
+                    quoted = false;
+                    afterQuote = true;
+                } else {
+                    append(c);
+                }
+            } else if (c == '"') {
+                // a doubled quote inside a quoted field is an escaped quote
+                if (afterQuote) {
+                    append('"');
+                }
+                quoted = true;
+                afterQuote = false;
+            } else if (c == ',') {
+                endField();
+                afterQuote = false;
+            } else if (c == '\n') {
+                endField();
+                return true;
+            } else if (c == '\r') {
+                endField();
+                if ((position < limit || fill()) && buffer[position] == '\n') {
+                    position++;
+                }
+                return true;
+            } else {
+                append(c);
+                afterQuote = false;
+            }
+        }
+    }
+
+    /**
+     * Reused view of one field of the current record.
+     */
+    private class Field implements CharSequence {
+        private final int column;
+
+        Field(int column) {
+            this.column = column;
+        }
+
+        @Override
+        public int length() {
+            return hasField(column) ? fieldEnd[column] - fieldStart[column] : 0;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length()) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            return record[fieldStart[column] + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return getString(column);
+        }
+    }
+}
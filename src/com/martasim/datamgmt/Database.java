@@ -8,6 +8,7 @@ import com.martasim.models.Stop;
 import java.sql.SQLException;
 import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface Database {
 
@@ -25,6 +26,26 @@ public interface Database {
      */
     void close() throws SQLException;
 
+    /**
+     * Changes made by a Transaction passed to inTransaction.
+     */
+    interface Transaction {
+        void run(Database database) throws SQLException;
+    }
+
+    /**
+     * Runs several changes as one unit, e.g. every change of a simulation tick.
+     * If the transaction throws, none of its changes are kept. Calls can be nested, and a nested call that
+     * throws only undoes its own changes.
+     * Databases that can't undo changes run the transaction without that guarantee.
+     *
+     * @param transaction making the changes on the Database it is given
+     * @throws SQLException
+     */
+    default void inTransaction(Transaction transaction) throws SQLException {
+        transaction.run(this);
+    }
+
     /**
      * Adds a bus to the database.
      *
@@ -41,6 +62,20 @@ public interface Database {
      */
     void addEvent(Event event) throws SQLException;
 
+    /**
+     * Adds several events to the database in one transaction.
+     *
+     * @param events that are to be added to the database
+     * @throws SQLException
+     */
+    default void addEvents(Collection<Event> events) throws SQLException {
+        inTransaction(database -> {
+            for (Event event : events) {
+                database.addEvent(event);
+            }
+        });
+    }
+
     /**
      * Adds a route to the database.
      *
@@ -65,6 +100,20 @@ public interface Database {
      */
     void updateBus(Bus bus) throws SQLException;
 
+    /**
+     * Updates several buses in one transaction, e.g. every bus that moved during a simulation tick.
+     *
+     * @param buses Bus objects that are updated to database
+     * @throws SQLException
+     */
+    default void updateBuses(Collection<Bus> buses) throws SQLException {
+        inTransaction(database -> {
+            for (Bus bus : buses) {
+                database.updateBus(bus);
+            }
+        });
+    }
+
     /**
      * Updates only the time of event
      *
@@ -98,6 +147,20 @@ public interface Database {
      */
     void updateStop(Stop stop) throws SQLException;
 
+    /**
+     * Updates several stops in one transaction.
+     *
+     * @param stops Stop objects that are updated to database
+     * @throws SQLException
+     */
+    default void updateStops(Collection<Stop> stops) throws SQLException {
+        inTransaction(database -> {
+            for (Stop stop : stops) {
+                database.updateStop(stop);
+            }
+        });
+    }
+
     /**
      * Gets a Bus from the database
      *
@@ -142,6 +205,15 @@ public interface Database {
      */
     Collection<Bus> getAllBuses(String routeId) throws SQLException;
 
+    /**
+     * Gets all buses from the database one at a time, only reading a bus once the stream reaches it.
+     * Close the stream if it is not read to the end, e.g. with try-with-resources.
+     *
+     * @return Stream of type Bus containing all buses in database
+     * @throws SQLException
+     */
+    Stream<Bus> streamAllBuses() throws SQLException;
+
     /**
      * Gets all events from the database
      *
@@ -150,6 +222,16 @@ public interface Database {
      */
     Collection<Event> getAllEvents() throws SQLException;
 
+    /**
+     * Gets all events from the database one at a time, only reading an event once the stream reaches it,
+     * so a whole day of events can be processed without holding them all in memory.
+     * Close the stream if it is not read to the end, e.g. with try-with-resources.
+     *
+     * @return Stream of type Event containing all events in database
+     * @throws SQLException
+     */
+    Stream<Event> streamAllEvents() throws SQLException;
+
     /**
      * @param busId related to event
      * @return Collection of Events with corresponding busId
@@ -171,6 +253,32 @@ public interface Database {
      */
     Collection<Event> getAllEventsWithArrivalTime(int arrivalTime) throws SQLException;
 
+    /**
+     * @param from earliest arrivalTime to include
+     * @param to arrivalTime after the latest one to include
+     * @return List of Events with buses arriving at a stop in [from, to), ordered by arrivalTime
+     * @throws SQLException
+     */
+    List<Event> getAllEventsWithArrivalTime(int from, int to) throws SQLException;
+
+    /**
+     * Gets one page of the events with buses arriving at a stop in [from, to).
+     * Events are ordered by arrivalTime, so a simulation can read a day in chunks by passing the last event
+     * of each page as after to get the next one, until a page has fewer than limit events.
+     * Events with the same arrivalTime are in an order that depends on the implementation, e.g. SQLiteDatabase
+     * orders them by the numbers it stores ids as, so after must come from a page of the same Database.
+     *
+     * @param from earliest arrivalTime to include
+     * @param to arrivalTime after the latest one to include
+     * @param stopId of the only stop to include events of, or null for all stops
+     * @param routeId of the only route whose buses to include events of, or null for all routes
+     * @param after last event of the previous page of this Database, or null for the first page
+     * @param limit maximum number of events on the page
+     * @return List of at most limit Events ordered by arrivalTime
+     * @throws SQLException
+     */
+    List<Event> getEventPage(int from, int to, String stopId, String routeId, Event after, int limit) throws SQLException;
+
     /**
      * @param departureTime of Bus
      * @return Collection of Events with buses leaving a stop at the given departureTime
@@ -194,6 +302,15 @@ public interface Database {
      */
     Collection<Stop> getAllStops() throws SQLException;
 
+    /**
+     * Gets all stops from the database one at a time, only reading a stop once the stream reaches it.
+     * Close the stream if it is not read to the end, e.g. with try-with-resources.
+     *
+     * @return Stream of type Stop containing all stops in database
+     * @throws SQLException
+     */
+    Stream<Stop> streamAllStops() throws SQLException;
+
     /**
      * Gets all stops from the database that are on a route with the corresponding route ID.
      * Stops will be ordered based on how they are ordered in the route
@@ -220,6 +337,20 @@ public interface Database {
      */
     void removeEvent(Event event) throws SQLException;
 
+    /**
+     * Removes several events from the database in one transaction.
+     *
+     * @param events that are removed from the database
+     * @throws SQLException
+     */
+    default void removeEvents(Collection<Event> events) throws SQLException {
+        inTransaction(database -> {
+            for (Event event : events) {
+                database.removeEvent(event);
+            }
+        });
+    }
+
     /**
      * Removes a route from the database.
      *
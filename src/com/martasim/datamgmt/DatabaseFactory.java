@@ -3,7 +3,10 @@ package com.martasim.datamgmt;
 import com.martasim.models.DayOfTheWeek;
 
 import java.io.File;
+import java.io.IOException;
 import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.zip.ZipFile;
 
 public class DatabaseFactory {
@@ -38,14 +41,116 @@ public class DatabaseFactory {
         return new SQLiteDatabase(file);
     }
 
+    /**
+     * Opens a Database file for use from several threads, where reads run while another thread writes.
+     *
+     * @param file that contains the Database
+     * @param readConnections number of reads that can run at the same time
+     * @return the Database based on the given file
+     * @throws SQLException
+     */
+    public static ConcurrentDatabase createConcurrentDatabaseFromDb(File file, int readConnections) throws SQLException {
+        return new ConcurrentDatabase(file, readConnections);
+    }
+
+    /**
+     * Loads every table of a Database file into memory, so reads and writes no longer go to the file.
+     * Call flush on the returned Database to write its contents back to the file.
+     *
+     * @param file that contains the Database
+     * @param flushOnClose whether closing the returned Database also flushes it to the file
+     * @return the Database with the contents of the file
+     * @throws SQLException
+     */
+    public static InMemoryDatabase createInMemoryDatabaseFromDb(File file, boolean flushOnClose) throws SQLException {
+        InMemoryDatabase database = new InMemoryDatabase(file, flushOnClose);
+        SQLiteDatabase source = new SQLiteDatabase(file);
+        try {
+            database.load(source);
+        } finally {
+            source.close();
+        }
+        return database;
+    }
+
     /**
      * @param zipFile containing GTFS data
      * @return a Database located in the MartaDatabase.db file that is populated with the GTFS data
      * @throws SQLException
      */
     public static Database createDatabaseFromGtfs(ZipFile zipFile, DayOfTheWeek dayOfTheWeek) throws SQLException {
+        return createDatabaseFromGtfs(zipFile, dayOfTheWeek, 1);
+    }
+
+    /**
+     * Imports the GTFS data with files that don't depend on each other being parsed at the same time.
+     *
+     * @param zipFile containing GTFS data
+     * @param dayOfTheWeek whose service should be imported
+     * @param threads number of files to parse at the same time, e.g. Runtime.getRuntime().availableProcessors()
+     * @return a Database located in the MartaDatabase.db file that is populated with the GTFS data
+     * @throws SQLException
+     */
+    public static Database createDatabaseFromGtfs(ZipFile zipFile, DayOfTheWeek dayOfTheWeek, int threads) throws SQLException {
         Database database = createEmptyDatabase();
-        (new GtfsParser(database, zipFile)).parse(dayOfTheWeek);
+        (new GtfsParser(database, zipFile, threads)).parse(dayOfTheWeek);
+        return database;
+    }
+
+    /**
+     * Copies the Database that was imported from the same zip file and day before, if it is still in the cache
+     * directory. Otherwise the GTFS data is imported into the cache first. Databases that were not used for
+     * the longest time are deleted once the cache grows past maxCacheBytes.
+     * Changes to the returned Database only go to the copy, the cached Database stays as it was imported.
+     *
+     * @param zipFile containing GTFS data
+     * @param dayOfTheWeek whose service should be imported
+     * @param threads number of files to parse at the same time when the data has to be imported
+     * @param cacheDirectory in which imported Databases are kept
+     * @param maxCacheBytes total size the Databases in the cache directory may take up
+     * @param file in which to create the copy of the cached Database, replaced if it exists
+     * @return a Database in the given file that is populated with the GTFS data
+     * @throws IOException if the zip file, the cache directory or the file can't be read or written
+     * @throws SQLException
+     */
+    public static Database createDatabaseFromGtfs(ZipFile zipFile, DayOfTheWeek dayOfTheWeek, int threads,
+                                                  File cacheDirectory, long maxCacheBytes, File file) throws IOException, SQLException {
+        return new GtfsImportCache(cacheDirectory, maxCacheBytes).open(zipFile, dayOfTheWeek, threads, file);
+    }
+
+    /**
+     * Imports the GTFS data for several days at once. Every file in the zip is only parsed once,
+     * instead of once per day.
+     *
+     * @param zipFile containing GTFS data
+     * @param files in which to create the Database of each day
+     * @param threads number of files to parse at the same time
+     * @return the Database of each day, populated with the GTFS data for that day
+     * @throws SQLException
+     */
+    public static Map<DayOfTheWeek, Database> createDatabasesFromGtfs(ZipFile zipFile, Map<DayOfTheWeek, File> files,
+                                                                      int threads) throws SQLException {
+        Map<DayOfTheWeek, Database> databases = new EnumMap<>(DayOfTheWeek.class);
+        for (Map.Entry<DayOfTheWeek, File> entry : files.entrySet()) {
+            databases.put(entry.getKey(), createEmptyDatabase(entry.getValue()));
+        }
+        (new GtfsParser(null, zipFile, threads)).parse(databases);
+        return databases;
+    }
+
+    /**
+     * Brings a Database created by an earlier GTFS import up to date with a newer version of the feed.
+     * Only the tables whose files changed are imported again, and only their changed rows are rewritten.
+     *
+     * @param file that contains the Database
+     * @param zipFile containing the new GTFS data
+     * @param dayOfTheWeek whose service the Database contains
+     * @return the updated Database
+     * @throws SQLException
+     */
+    public static Database updateDatabaseFromGtfs(File file, ZipFile zipFile, DayOfTheWeek dayOfTheWeek) throws SQLException {
+        Database database = createDatabaseFromDb(file);
+        (new GtfsParser(database, zipFile)).update(dayOfTheWeek);
         return database;
     }
 
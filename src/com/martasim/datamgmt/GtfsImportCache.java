@@ -0,0 +1,157 @@
+package com.martasim.datamgmt;
+
+import com.martasim.models.DayOfTheWeek;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.zip.ZipFile;
+
+/**
+ * A directory of databases that were already imported from GTFS feeds.
+ *
+ * Each database is stored under the SHA-256 hash of the zip file and the imported day, so a feed that is
+ * byte for byte the same as before is copied straight from the cache instead of being parsed again.
+ * The cached databases themselves are never opened for writing, so they stay as they were imported.
+ * Once the directory grows past its size limit, the databases that were used least recently are deleted.
+ */
+class GtfsImportCache {
+
+    /**
+     * Part of every cached file name. Change it whenever the import writes different tables or rows,
+     * so databases built by an older version are no longer found.
+     */
+    private static final String FORMAT = "v4";
+    private static final String EXTENSION = ".db";
+
+    private final File directory;
+    private final long maxBytes;
+
+    /**
+     * @param directory to keep the databases in, created if it does not exist
+     * @param maxBytes total size the databases in the directory may take up
+     */
+    GtfsImportCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Copies the cached database for the feed and day to the given file and opens the copy, importing
+     * the feed into the cache first if it is not there yet.
+     *
+     * @param zipFile containing GTFS data
+     * @param dayOfTheWeek whose service should be imported
+     * @param threads number of files to parse at the same time on a miss
+     * @param workingFile to copy the cached database to, replaced if it exists, outside of the cache directory
+     * @return the Database in workingFile, populated with the GTFS data
+     * @throws IOException if the zip file or the cache directory can't be read or written
+     * @throws SQLException
+     */
+    Database open(ZipFile zipFile, DayOfTheWeek dayOfTheWeek, int threads, File workingFile) throws IOException, SQLException {
+        File file = getFile(zipFile, dayOfTheWeek);
+        if (file.isFile()) {
+            file.setLastModified(System.currentTimeMillis());
+            return openCopy(file, workingFile);
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("could not create " + directory);
+        }
+        // import next to the final file and only move it there once complete, so a failed import is never used
+        File importFile = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            Database database = DatabaseFactory.createEmptyDatabase(importFile);
+            boolean imported;
+            try {
+                imported = new GtfsParser(null, zipFile, threads).parse(Collections.singletonMap(dayOfTheWeek, database));
+            } finally {
+                database.close();
+            }
+            if (!imported) {
+                throw new IOException("could not import " + zipFile.getName());
+            }
+            Files.move(importFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            importFile.delete();
+        }
+
+        evict(file);
+        return openCopy(file, workingFile);
+    }
+
+    private static Database openCopy(File file, File workingFile) throws IOException, SQLException {
+        Files.copy(file.toPath(), workingFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return DatabaseFactory.createDatabaseFromDb(workingFile);
+    }
+
+    /**
+     * @return the file the database for the feed and day is cached in
+     * @throws IOException if the zip file can't be read
+     */
+    File getFile(ZipFile zipFile, DayOfTheWeek dayOfTheWeek) throws IOException {
+        return new File(directory, hash(new File(zipFile.getName())) + '-' + dayOfTheWeek.name().toLowerCase()
+                + '-' + FORMAT + EXTENSION);
+    }
+
+    private static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException noSuchAlgorithmException) {
+            throw new IllegalStateException(noSuchAlgorithmException);
+        }
+
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream inputStream = new FileInputStream(file)) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Deletes the least recently used databases until the rest fit in the size limit.
+     *
+     * @param keep database that is never deleted, even if it is bigger than the limit on its own
+     */
+    void evict(File keep) {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
+
+        long bytes = keep.length();
+        boolean full = false;
+        for (File file : files) {
+            if (file.equals(keep)) {
+                continue;
+            }
+            long length = file.length();
+            // once one database does not fit, every database used before it goes too
+            if (!full && bytes + length <= maxBytes) {
+                bytes += length;
+            } else {
+                full = true;
+                file.delete();
+            }
+        }
+    }
+}
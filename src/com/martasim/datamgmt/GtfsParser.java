@@ -1,25 +1,48 @@
 package com.martasim.datamgmt;
 
-import com.martasim.models.Route;
 import com.martasim.models.DayOfTheWeek;
-import com.sun.xml.internal.ws.api.ha.StickyFeature;
-import javafx.util.Pair;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 class GtfsParser extends Parser {
 
+    private static final int QUEUED_BATCHES = 16;
+
     Map<String, ZipEntry> zipEntries = new HashMap<>();
+    final int threads;
+    DayImport[] days;
+
+    IdDictionary busIds = new IdDictionary();
+    IdDictionary routeIds = new IdDictionary();
+    IdDictionary stopIds = new IdDictionary();
+
+    Map<String, Integer> serviceDays;
+    TripIndex trips;
+    int[] tripBusIds;
+    int[] tripRouteIds;
+    int[] tripDays;
+    BitSet feedStops;
+    ShapeStore shapes;
 
     GtfsParser(Database database, ZipFile zipFile) {
+        this(database, zipFile, 1);
+    }
+
+    /**
+     * @param database to fill with the GTFS data
+     * @param zipFile containing GTFS data
+     * @param threads number of threads that parse files at the same time, writes always happen on one thread
+     */
+    GtfsParser(Database database, ZipFile zipFile, int threads) {
         super(database, zipFile);
+        this.threads = threads;
 
         Enumeration<? extends ZipEntry> entries = zipFile.entries();
         while (entries.hasMoreElements()) {
@@ -36,549 +59,545 @@ class GtfsParser extends Parser {
         return zipFile.getInputStream(zipEntries.get(fileName));
     }
 
-    @Override
-    public void parse(DayOfTheWeek dayOfTheWeek) {
-        try {
-
-            System.out.println(zipFile.getName());
-            HashSet<String> serviceIds = getServiceIdsFromDay(dayOfTheWeek, getInputStream("calendar.txt"));
-            System.out.println("Parsing Route");
-
-            HashSet<String> routeIds = getRouteIdsByServiceIds(getInputStream("trips.txt"), serviceIds);
-            addRoutes(getInputStream("routes.txt"), routeIds);
-
-            System.out.println("Finished Routes, Parsing Stops");
-            addStops(getInputStream("stops.txt"));
-            System.out.println("Finished Stops, Parsing Buses");
-            addBuses(zipFile.getInputStream(zipFile.getEntry("gtfs022118/trips.txt")), serviceIds);
-            System.out.println("Finished Buses, Parsing StopsToRoute");
-
-            HashSet<String> busIds = getBusIdsByServiceIds(getInputStream("trips.txt"), serviceIds);
-            addStopsToRoutes(getInputStream("stop_times.txt"), busIds);
-
-            System.out.println("Finished StopsToRoutes, Parsing Events");
-            addEvents(getInputStream("stop_times.txt"));
-            System.out.println("Finished Events");
-        } catch (IOException ioException) {
-            ioException.printStackTrace();
-        }
+    /**
+     * @return entry of the file, or for an optional file the feed does not have one whose CRC and size are -1
+     */
+    private ZipEntry getZipEntry(String fileName) {
+        ZipEntry entry = zipEntries.get(fileName);
+        return entry != null ? entry : new ZipEntry(fileName);
     }
 
-    private HashSet<String> getServiceIdsFromDay(DayOfTheWeek dayOfTheWeek, InputStream inputStream) throws IOException {
-        BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
-
-        //initialize hash map with the first row of the file
-        HashMap<String, Integer> map = new HashMap<>();
-        String[] labels = br.readLine().split(",");
-        for (int i = 0; i < labels.length; i++) {
-            map.put(labels[i], i);
-        }
-
-        String dayOfService = "";
-
-        switch(dayOfTheWeek) {
-            case MONDAY:
-                dayOfService = "monday";
-                break;
-            case TUESDAY:
-                dayOfService = "tuesday";
-                break;
-            case WEDNESDAY:
-                dayOfService = "wednesday";
-                break;
-            case THURSDAY:
-                dayOfService = "thursday";
-                break;
-
-            case FRIDAY:
-                dayOfService = "friday";
-                break;
-            case SATURDAY:
-                dayOfService = "saturday";
-                break;
-            case SUNDAY:
-                dayOfService = "sunday";
-                break;
-        }
-
-        HashSet<String> serviceIds = new HashSet<>();
-
-        String line;
-        String serviceId;
-        while ((line = br.readLine()) != null && !line.isEmpty()) {
-            String st[] = (line + ", ").split(",");
-
-            if (st[map.get(dayOfService)].equals("1")) {
-                serviceId = st[map.get("service_id")];
-                serviceIds.add(serviceId);
-            }
-
+    /**
+     * The database rows for one day of the week are written to.
+     */
+    private static class DayImport {
+        final DayOfTheWeek day;
+        final int mask;
+
+        final SQLiteDatabase database;
+        final IngestPipeline pipeline;
+
+        DayImport(DayOfTheWeek day, Database database, String tableSuffix) {
+            this.day = day;
+            this.mask = 1 << day.ordinal();
+            this.database = (SQLiteDatabase) database;
+            this.pipeline = new IngestPipeline(this.database, QUEUED_BATCHES, tableSuffix);
         }
-
-        br.close();
-
-        return serviceIds;
     }
 
-    private HashSet<String> getRouteIdsByServiceIds(InputStream inputStream, HashSet<String> serviceIds) throws IOException{
-        BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
-
-        //initialize hash map with the first row of the file
-        HashMap<String, Integer> map = new HashMap<>();
-        String[] labels = br.readLine().split(",");
-        for (int i = 0; i < labels.length; i++) {
-            map.put(labels[i], i);
-        }
-
-        HashSet<String> routeIds = new HashSet<>();
+    @Override
+    public void parse(DayOfTheWeek dayOfTheWeek) {
+        parse(Collections.singletonMap(dayOfTheWeek, database));
+    }
 
-        String line;
-        while ((line = br.readLine()) != null) {
-            String[] st = (line + ", ").split(",");
+    /**
+     * Imports several days at once. Every file is parsed only once and each row is written to the
+     * database of every day whose service it belongs to.
+     *
+     * @param databases empty database to fill for each day
+     * @return whether every table was imported into every database
+     */
+    boolean parse(Map<DayOfTheWeek, Database> databases) {
+        return parse(databases, EnumSet.allOf(RowBatch.Table.class), "");
+    }
 
-            String serviceId = st[map.get("service_id")];
-            if (serviceIds.contains(serviceId)) {
-                routeIds.add(st[map.get("route_id")]);
+    /**
+     * Re-imports the GTFS data into a database that was filled by an earlier import of the same day.
+     * Only tables built from files whose CRC or size changed since then are parsed again. Their rows go
+     * into staging tables first and are merged into the existing tables, so unchanged rows are not touched.
+     *
+     * @param dayOfTheWeek whose service the database contains
+     * @return the number of rows that were deleted or inserted, or -1 if the update failed
+     */
+    int update(DayOfTheWeek dayOfTheWeek) {
+        SQLiteDatabase sqLiteDatabase = (SQLiteDatabase) database;
+        Set<RowBatch.Table> tables = EnumSet.noneOf(RowBatch.Table.class);
+        try {
+            // keep the numbers the database already uses for ids, so rows of tables that are not reloaded stay valid
+            busIds = new IdDictionary(sqLiteDatabase.getIds(SQLiteDatabase.BUS_IDS));
+            routeIds = new IdDictionary(sqLiteDatabase.getIds(SQLiteDatabase.ROUTE_IDS));
+            stopIds = new IdDictionary(sqLiteDatabase.getIds(SQLiteDatabase.STOP_IDS));
+            for (RowBatch.Table table : RowBatch.Table.values()) {
+                for (String source : table.sources) {
+                    ZipEntry entry = getZipEntry(source);
+                    if (!sqLiteDatabase.isImportedGtfsFile(source, entry.getCrc(), entry.getSize(), dayOfTheWeek)) {
+                        tables.add(table);
+                    }
+                }
+            }
+            if (tables.isEmpty()) {
+                return 0;
+            }
+            for (RowBatch.Table table : tables) {
+                sqLiteDatabase.createStagingTable(table.name);
             }
+        } catch (SQLException sqlException) {
+            sqlException.printStackTrace();
+            return -1;
         }
 
-        br.close();
-
-        return routeIds;
-    }
-
-    private HashSet<String> getBusIdsByServiceIds(InputStream inputStream, HashSet<String> serviceIds) throws IOException {
-        BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
-
-        //initialize hash map with the first row of the file
-        HashMap<String, Integer> map = new HashMap<>();
-        String[] labels = br.readLine().split(",");
-        for (int i = 0; i < labels.length; i++) {
-            map.put(labels[i], i);
+        if (!parse(Collections.singletonMap(dayOfTheWeek, database), tables, SQLiteDatabase.STAGING_SUFFIX)) {
+            return -1;
         }
-
-        HashSet<String> busIds = new HashSet<>();
-
-        String line;
-        while ((line = br.readLine()) != null) {
-            String[] st = (line + ", ").split(",");
-
-            String serviceId = st[map.get("service_id")];
-            if (serviceIds.contains(serviceId)) {
-                busIds.add(st[map.get("trip_id")]);
+        int changes = 0;
+        try {
+            saveIds(sqLiteDatabase);
+            for (RowBatch.Table table : tables) {
+                changes += sqLiteDatabase.mergeStagingTable(table.name);
             }
+            // the database may predate some of the indexes
+            sqLiteDatabase.createIndexes();
+            sqLiteDatabase.analyze();
+            setImportedGtfsFiles(sqLiteDatabase, dayOfTheWeek);
+        } catch (SQLException sqlException) {
+            sqlException.printStackTrace();
+            return -1;
         }
-
-        br.close();
-
-        return busIds;
+        return changes;
     }
 
-    private void addRoutes(InputStream inputStream, HashSet<String> routeIds) throws IOException {
-        BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
-
-        //initialize hash map with the first row of the file
-        HashMap<String, String> map = new HashMap<>();
-        String[] labels = br.readLine().split(",");
-        for (String label : labels) {
-            map.put(label, "");
+    /**
+     * @param databases database to fill for each day
+     * @param tables to import, the phases that only feed other tables are skipped
+     * @param tableSuffix added to the table names rows are written to
+     * @return whether every table was imported into every database
+     */
+    private boolean parse(Map<DayOfTheWeek, Database> databases, Set<RowBatch.Table> tables, String tableSuffix) {
+        System.out.println(zipFile.getName());
+
+        ImportPhases phases = new ImportPhases();
+        if (tables.contains(RowBatch.Table.ROUTE) || tables.contains(RowBatch.Table.BUS)
+                || tables.contains(RowBatch.Table.ROUTE_TO_STOP) || tables.contains(RowBatch.Table.EVENT)) {
+            phases.add("calendar", () -> serviceDays = getServiceDays(getInputStream("calendar.txt")));
+            phases.add("trips", () -> {
+                trips = TripIndex.read(getInputStream("trips.txt"));
+                tripBusIds = trips.addTripIds(busIds);
+                tripRouteIds = trips.addRouteIds(routeIds);
+            });
+            phases.add("tripDays", () -> tripDays = trips.getDays(serviceDays), "calendar", "trips");
+        }
+        if (tables.contains(RowBatch.Table.BUS)) {
+            // shapes.txt is optional, without it every bus starts at 0, 0
+            phases.add("shapes", () -> shapes = zipEntries.containsKey("shapes.txt")
+                    ? ShapeStore.read(getInputStream("shapes.txt")) : new ShapeStore());
+        }
+        if (tables.contains(RowBatch.Table.ROUTE)) {
+            phases.add("routes", () -> addRoutes(getInputStream("routes.txt")), "tripDays");
+        }
+        // stop ids are numbered while reading stops.txt, which stop times need even if the stops are not reloaded
+        if (tables.contains(RowBatch.Table.STOP) || tables.contains(RowBatch.Table.ROUTE_TO_STOP)
+                || tables.contains(RowBatch.Table.EVENT)) {
+            phases.add("stops", () -> addStops(getInputStream("stops.txt"), tables.contains(RowBatch.Table.STOP)));
+        }
+        if (tables.contains(RowBatch.Table.BUS)) {
+            phases.add("buses", () -> addBuses(), "tripDays", "shapes");
+        }
+        if (tables.contains(RowBatch.Table.ROUTE_TO_STOP)) {
+            phases.add("routeToStop", () -> addStopsToRoutes(getInputStream("stop_times.txt")), "tripDays", "stops");
+        }
+        if (tables.contains(RowBatch.Table.EVENT)) {
+            phases.add("events", () -> addEvents(getInputStream("stop_times.txt")), "tripDays", "stops");
         }
 
-        String line;
-        while ((line = br.readLine()) != null) {
-            String[] st = (line + ", ").split(",");
-
-            try {
-                for (int i = 0; i < labels.length; i++) {
-                    map.replace(labels[i], st[i]);
-                }
+        ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        days = new DayImport[databases.size()];
+        int i = 0;
+        for (Map.Entry<DayOfTheWeek, Database> entry : databases.entrySet()) {
+            days[i++] = new DayImport(entry.getKey(), entry.getValue(), tableSuffix);
+        }
 
-                String routeId = map.get("route_id");
-                if (routeIds.contains(routeId)) {
-                    database.addRoute(new Route(routeId, map.get("route_short_name"), map.get("route_long_name")));
-                }
-            } catch (SQLException sqlException) {
-                sqlException.printStackTrace();
+        Exception failure = null;
+        try {
+            phases.run(executor == null ? Runnable::run : executor);
+        } catch (IOException | RuntimeException exception) {
+            exception.printStackTrace();
+            failure = exception;
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
             }
         }
 
-        br.close();
-    }
-
-    private void addStops(InputStream inputStream) throws IOException{
-        BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
-
-        //initialize hash map with the first row of the file
-        HashMap<String, String> map = new HashMap<>();
-        String[] labels = br.readLine().split(",");
-        for (String label: labels) {
-            map.put(label, "");
-        }
-
-        StringBuilder sb = null;
-        int counter = 0;
-        String line;
-        while ((line = br.readLine()) != null && !line.isEmpty()) {
-            String[] st = (line + ", ").split(",");
-            int st_index = 0;
-            //update strings including apostrophes to work with SQL INSERT command
-            for (String label: labels) {
-                if (st[st_index].startsWith("\"")) {
-                    String str = st[st_index].concat("," + st[st_index + 1]);
-                    str = str.replace("\"", "");
-                    map.replace(label, str);
-                    st_index++;
-                } else {
-                    map.replace(label, st[st_index]);
-                }
-                st_index++;
-            }
-            if (counter % 10000 == 0) {
-                if (counter > 0) {
-                    try {
-                        ((SQLiteDatabase) database).executeUpdate(sb.toString());
-                    } catch (SQLException sqlException) {
-                        sqlException.printStackTrace();
-                    }
-                }
-                sb = new StringBuilder("INSERT INTO stop values ");
-            } else {
-                sb.append(',');
+        boolean imported = failure == null;
+        for (DayImport day : days) {
+            if (failure != null) {
+                // the rows already queued are rolled back, so the databases stay as they were
+                day.pipeline.abort(failure);
+                continue;
             }
-            counter++;
-
-            String stopId = map.get("stop_id");
-            String stopName = map.get("stop_name").replace("'", "''");
-            double lat = Double.parseDouble(map.get("stop_lat"));
-            double lon = Double.parseDouble(map.get("stop_lon"));
-            sb.append(String.format(
-                    "('%s', '%s', %d, %d, %f, %f)",
-                    stopId,
-                    stopName,
-                    0,
-                    0,
-                    lat,
-                    lon
-            ));
-        }
-
-        if (counter % 10000 > 0) {
             try {
-                ((SQLiteDatabase) database).executeUpdate(sb.toString());
+                day.pipeline.close();
             } catch (SQLException sqlException) {
                 sqlException.printStackTrace();
+                imported = false;
             }
         }
 
-        br.close();
+        // a full import records its files right away, a re-import only once its tables are merged
+        if (imported && tableSuffix.isEmpty()) {
+            for (DayImport day : days) {
+                try {
+                    saveIds(day.database);
+                    setImportedGtfsFiles(day.database, day.day);
+                } catch (SQLException sqlException) {
+                    sqlException.printStackTrace();
+                }
+            }
+        }
+        return imported;
     }
 
-    private void addBuses(InputStream inputStream, HashSet<String> serviceIds) throws IOException {
-        BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
+    private void saveIds(SQLiteDatabase database) throws SQLException {
+        database.saveIds(SQLiteDatabase.BUS_IDS, busIds);
+        database.saveIds(SQLiteDatabase.ROUTE_IDS, routeIds);
+        database.saveIds(SQLiteDatabase.STOP_IDS, stopIds);
+    }
 
-        Map<String, Pair<Double, Double>> shapeStartingLocations =
-                getShapeStartingLocations(getInputStream("shapes.txt"));
+    /**
+     * Records the CRC and size of every file the tables are built from, so a later update can tell what changed.
+     */
+    private void setImportedGtfsFiles(SQLiteDatabase database, DayOfTheWeek dayOfTheWeek) throws SQLException {
+        Set<String> sources = new TreeSet<>();
+        for (RowBatch.Table table : RowBatch.Table.values()) {
+            sources.addAll(Arrays.asList(table.sources));
+        }
+        for (String source : sources) {
+            ZipEntry entry = getZipEntry(source);
+            database.setImportedGtfsFile(source, entry.getCrc(), entry.getSize(), dayOfTheWeek);
+        }
+    }
 
-        HashMap<String, Integer> map = new HashMap<>();
-        String[] labels = br.readLine().split(",");
-        for (int i = 0; i < labels.length; i++) {
-            map.put(labels[i], i);
+    /**
+     * The current batch of one table for every imported day.
+     * Only the phase that parses the table's rows uses it.
+     */
+    private class TableWriter {
+        private final RowBatch.Table table;
+        private final RowBatch[] batches;
+
+        TableWriter(RowBatch.Table table) {
+            this.table = table;
+            this.batches = new RowBatch[days.length];
+            for (int i = 0; i < days.length; i++) {
+                batches[i] = days[i].pipeline.newBatch(table);
+            }
         }
 
-        StringBuilder sb = null;
-        int counter = 0;
-        String line;
-        while ((line = br.readLine()) != null && !line.isEmpty()) {
-            String[] st = (line + ", ").split(",");
-            String routeId = st[map.get("route_id")];
-            String serviceId = st[map.get("service_id")];
-            String busId = st[map.get("trip_id")];
-            boolean outbound = st[map.get("direction_id")].trim().charAt(0) == '0';
-            String shapeId = st[map.get("shape_id")];
+        /**
+         * @param day index of the day in days
+         * @return the batch to add the next row for the day to
+         */
+        RowBatch batch(int day) {
+            return batches[day];
+        }
 
-            if (!serviceIds.contains(serviceId)) {
-                continue;
+        /**
+         * Finishes the row that was added to the day's batch, queueing the batch once it is full.
+         */
+        void endRow(int day) throws IOException {
+            RowBatch batch = batches[day];
+            batch.endRow();
+            if (batch.isFull()) {
+                days[day].pipeline.put(batch);
+                batches[day] = days[day].pipeline.newBatch(table);
             }
+        }
 
-            if (counter % 10000 == 0) {
-                if (counter > 0) {
-                    try {
-                        ((SQLiteDatabase) database).executeUpdate(sb.toString());
-                    } catch (SQLException sqlException) {
-                        sqlException.printStackTrace();
-                    }
-                }
-                sb = new StringBuilder("INSERT INTO bus values ");
-            } else {
-                sb.append(',');
-            }
-            counter++;
-
-            sb.append(String.format(
-                    "('%s', '%s', %d, %d, %f, %f, %d, %d, %f, %f, %f)",
-                    busId,
-                    routeId,
-                    outbound ? 0 : 1,
-                    -1,
-                    shapeStartingLocations.get(shapeId).getKey(),
-                    shapeStartingLocations.get(shapeId).getValue(),
-                    0,
-                    50,
-                    100.0,
-                    100.0,
-                    0.0
-            ));
-        }
-        br.close();
-
-        if (counter % 10000 > 0) {
-            try {
-                ((SQLiteDatabase) database).executeUpdate(sb.toString());
-            } catch (SQLException sqlException) {
-                sqlException.printStackTrace();
+        void finish() throws IOException {
+            for (int i = 0; i < days.length; i++) {
+                days[i].pipeline.put(batches[i]);
+                days[i].pipeline.finish(table);
             }
         }
     }
 
-    public Map<String, Pair<Double, Double>> getShapeStartingLocations(InputStream inputStream) throws IOException {
-        BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
-
-        Map<String, Pair<Double, Double>> shapeStartingLocations = new HashMap<>();
-        Map<String, Integer> earliestPointForShape = new HashMap<>();
+    /**
+     * @param inputStream of calendar.txt
+     * @return the days each service runs on, as a bit mask of DayOfTheWeek ordinals
+     * @throws IOException
+     */
+    private Map<String, Integer> getServiceDays(InputStream inputStream) throws IOException {
+        CsvReader csv = new CsvReader(inputStream);
 
-        HashMap<String, Integer> map = new HashMap<>();
-        String[] labels = br.readLine().split(",");
-        for (int i = 0; i < labels.length; i++) {
-            map.put(labels[i], i);
+        int serviceIdColumn = csv.getRequiredColumn("service_id");
+        int[] dayColumns = new int[DayOfTheWeek.values().length];
+        for (DayOfTheWeek dayOfTheWeek : DayOfTheWeek.values()) {
+            dayColumns[dayOfTheWeek.ordinal()] = csv.getRequiredColumn(dayOfTheWeek.name().toLowerCase());
         }
 
-        String line;
-        while ((line = br.readLine()) != null && !line.isEmpty()) {
-            String[] st = (line + ", ").split(",");
-            String shapeId = st[map.get("shape_id")];
-            double lat = Double.parseDouble(st[map.get("shape_pt_lat")]);
-            double lon = Double.parseDouble(st[map.get("shape_pt_lon")]);
-            int seq = Integer.parseInt(st[map.get("shape_pt_sequence")]);
-
-            if (seq <= earliestPointForShape.getOrDefault(shapeId, Integer.MAX_VALUE)) {
-                shapeStartingLocations.put(shapeId, new Pair<>(lat, lon));
-                earliestPointForShape.put(shapeId, seq);
+        Map<String, Integer> serviceDays = new HashMap<>();
+        while (csv.next()) {
+            int mask = 0;
+            for (int day = 0; day < dayColumns.length; day++) {
+                if (csv.fieldEquals(dayColumns[day], "1")) {
+                    mask |= 1 << day;
+                }
             }
+            serviceDays.put(csv.getString(serviceIdColumn), mask);
         }
 
-        br.close();
+        csv.close();
 
-        return shapeStartingLocations;
+        return serviceDays;
     }
 
-    /*
-    You can delete this method after addBuses is done and move the bus hashmap to addBuses.
-    I needed to loop through trips.txt to grab the routeId and directionId of the trip's connected to the stop
-    but the addBuses function wasn't done yet so I used this function.
-     */
-    private HashMap<String, String[]> createBusMap(InputStream inputStream, HashSet<String> busIds) throws IOException {
-        BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
-
-        HashMap<String, String[]> busMap = new HashMap<>();
-
-        HashMap<String, Integer> map = new HashMap<>();
-        String[] labels = br.readLine().split(",");
-        for (int i = 0; i < labels.length; i++) {
-            map.put(labels[i], i);
+    private void addRoutes(InputStream inputStream) throws IOException {
+        int[] routeDays = new int[routeIds.size()];
+        for (int trip = 0; trip < trips.size(); trip++) {
+            routeDays[tripRouteIds[trip]] |= tripDays[trip];
         }
 
-        String line;
-        String routeId;
-        String busId;
-        String outbound; // 0 = outbound, 1 = inbound
+        CsvReader csv = new CsvReader(inputStream);
 
-        while ((line = br.readLine()) != null && !line.isEmpty()) {
-            String[] st = (line + ", ").split(",");
-            routeId = st[map.get("route_id")];
-            busId = st[map.get("trip_id")];
+        int routeIdColumn = csv.getRequiredColumn("route_id");
+        int shortNameColumn = csv.getColumn("route_short_name");
+        int longNameColumn = csv.getColumn("route_long_name");
 
-            if (!busIds.contains(busId)) {
+        TableWriter writer = new TableWriter(RowBatch.Table.ROUTE);
+        while (csv.next()) {
+            int route = routeIds.indexOf(csv.getField(routeIdColumn));
+            if (route < 0 || routeDays[route] == 0) {
                 continue;
             }
 
-            outbound = st[map.get("direction_id")].trim();
-
-            busMap.put(busId, new String[] {routeId, outbound});
+            // a route only needs one of the two names
+            String shortName = shortNameColumn < 0 ? "" : csv.getString(shortNameColumn);
+            String longName = longNameColumn < 0 ? "" : csv.getString(longNameColumn);
+            for (int day = 0; day < days.length; day++) {
+                if ((routeDays[route] & days[day].mask) != 0) {
+                    writer.batch(day).add(route).add(shortName).add(longName);
+                    writer.endRow(day);
+                }
+            }
         }
 
-        br.close();
+        csv.close();
 
-        return busMap;
+        writer.finish();
     }
 
-    private void addStopsToRoutes(InputStream inputStream, HashSet<String> busIds) throws IOException {
-        BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
-        HashMap<String, Integer> map = new HashMap<>();
-        String[] labels = br.readLine().split(",");
-        for (int i = 0; i < labels.length; i++) {
-            map.put(labels[i], i);
+    /**
+     * Numbers the ids of all stops and, if asked to, adds the stops to every day.
+     * Ids from an earlier import may belong to stops that were removed since, so feedStops marks the ones in the file.
+     */
+    private void addStops(InputStream inputStream, boolean addRows) throws IOException{
+        CsvReader csv = new CsvReader(inputStream);
+
+        int stopIdColumn = csv.getRequiredColumn("stop_id");
+        int stopNameColumn = csv.getRequiredColumn("stop_name");
+        int latColumn = csv.getRequiredColumn("stop_lat");
+        int lonColumn = csv.getRequiredColumn("stop_lon");
+
+        TableWriter writer = new TableWriter(RowBatch.Table.STOP);
+        feedStops = new BitSet();
+        while (csv.next()) {
+            int stop = stopIds.add(csv.getString(stopIdColumn));
+            feedStops.set(stop);
+            if (!addRows) {
+                continue;
+            }
+            String stopName = csv.getString(stopNameColumn);
+            double lat = csv.getDouble(latColumn);
+            double lon = csv.getDouble(lonColumn);
+            for (int day = 0; day < days.length; day++) {
+                writer.batch(day).add(stop).add(stopName).add(0).add(0).add(lat).add(lon);
+                writer.endRow(day);
+            }
         }
 
-        String currentBusId = null;
-        Map<Integer, String> stopSequenceToId = new TreeMap<>();
-        HashMap<String, String[]> busMap = createBusMap(getInputStream("trips.txt"), busIds);
-        HashSet<String> completedRoutes = new HashSet<>();
+        csv.close();
 
-        String line;
-        while ((line = br.readLine()) != null && !line.isEmpty()) {
+        writer.finish();
+    }
 
-            String[] st = (line + ", ").split(",");
-            String busId = st[map.get("trip_id")];
+    private void addBuses() throws IOException {
+        TableWriter writer = new TableWriter(RowBatch.Table.BUS);
+        for (int trip = 0; trip < trips.size(); trip++) {
+            if (tripDays[trip] == 0) {
+                continue;
+            }
+
+            // a trip without a shape starts at 0, 0
+            double latitude = 0;
+            double longitude = 0;
+            if (!trips.getShapeId(trip).isEmpty()) {
+                int shape = shapes.indexOf(trips.getShapeId(trip));
+                if (shape < 0) {
+                    throw new IOException("trip " + trips.getTripId(trip) + " has unknown shape " + trips.getShapeId(trip));
+                }
+                latitude = shapes.getLatitude(shape, 0);
+                longitude = shapes.getLongitude(shape, 0);
+            }
+            for (int day = 0; day < days.length; day++) {
+                if ((tripDays[trip] & days[day].mask) == 0) {
+                    continue;
+                }
+                writer.batch(day)
+                        .add(tripBusIds[trip])
+                        .add(tripRouteIds[trip])
+                        .add(trips.isOutbound(trip) ? 0 : 1)
+                        .add(-1)
+                        .add(latitude)
+                        .add(longitude)
+                        .add(0)
+                        .add(50)
+                        .add(100.0)
+                        .add(100.0)
+                        .add(0.0);
+                writer.endRow(day);
+            }
+        }
 
-            if (!busIds.contains(busId)) {
+        writer.finish();
+    }
+
+    private void addStopsToRoutes(InputStream inputStream) throws IOException {
+        CsvReader csv = new CsvReader(inputStream);
+        int tripIdColumn = csv.getRequiredColumn("trip_id");
+        int stopIdColumn = csv.getRequiredColumn("stop_id");
+        int stopSequenceColumn = csv.getRequiredColumn("stop_sequence");
+
+        int currentTrip = -1;
+        Map<Integer, Integer> stopSequenceToId = new TreeMap<>();
+        List<BitSet> completedRoutes = new ArrayList<>();
+        for (int day = 0; day < days.length; day++) {
+            completedRoutes.add(new BitSet());
+        }
+        TableWriter writer = new TableWriter(RowBatch.Table.ROUTE_TO_STOP);
+
+        while (csv.next()) {
+            int trip = trips.indexOf(csv.getField(tripIdColumn));
+            if (trip < 0 || tripDays[trip] == 0) {
                 continue;
             }
 
-            String stopId = st[map.get("stop_id")];
-            int stopIndex = Integer.parseInt(st[map.get("stop_sequence")]);
+            int stop = stopIds.indexOf(csv.getField(stopIdColumn));
+            if (stop < 0 || !feedStops.get(stop)) {
+                continue;
+            }
+            int stopIndex = csv.getInt(stopSequenceColumn);
 
 
-            if (currentBusId == null) { //first line
-                currentBusId = busId;
+            if (currentTrip == -1) { //first line
+                currentTrip = trip;
             }
 
-            if (!busId.equals(currentBusId)) { //new trip
+            if (trip != currentTrip) { //new trip
                 //finished going through current trip's stops, time to add to database
-                String routeId = busMap.get(currentBusId)[0];
-                String outbound = busMap.get(currentBusId)[1];
-                if (!completedRoutes.contains(routeId)) {
-                    addStopsToRoutesInDatabase(new ArrayList<>(stopSequenceToId.values()), routeId, outbound);
-                    completedRoutes.add(routeId);
-                }
+                addStopsToRoutesInDatabase(new ArrayList<>(stopSequenceToId.values()), currentTrip, completedRoutes, writer);
 
                 //for new trip
-                currentBusId = busId;
+                currentTrip = trip;
                 stopSequenceToId = new TreeMap<>();
             }
 
-            stopSequenceToId.put(stopIndex, stopId);
+            stopSequenceToId.put(stopIndex, stop);
 
         }
 
-        br.close();
+        csv.close();
 
         if (!stopSequenceToId.isEmpty()) {
-            String routeId = busMap.get(currentBusId)[0];
-            String outbound = busMap.get(currentBusId)[1];
-            if (!completedRoutes.contains(routeId)) {
-                addStopsToRoutesInDatabase(new ArrayList<>(stopSequenceToId.values()), routeId, outbound);
-            }
+            addStopsToRoutesInDatabase(new ArrayList<>(stopSequenceToId.values()), currentTrip, completedRoutes, writer);
         }
+
+        writer.finish();
     }
 
-    private void addStopsToRoutesInDatabase(ArrayList<String> stopIdList, String routeId, String outbound) {
-
-        StringBuilder sb = new StringBuilder("INSERT INTO routeToStop values ");
-        String currentStopId;
-        int stopSequence;
-        if (outbound.equals("0")) { //0 = outbound, retain original stop sequence
-            for (int i = 0; i < stopIdList.size(); i++) {
-
-                currentStopId = stopIdList.get(i);
-                stopSequence = i;
-                sb.append(String.format(
-                        "('%s', '%s', %d)",
-                        routeId,
-                        currentStopId,
-                        stopSequence
-                ));
-
-                if (i < stopIdList.size() - 1) {
-                    sb.append(',');
-                }
+    /**
+     * Adds the stops of a trip as the stops of its route, on every day the trip runs and the route
+     * does not have its stops yet.
+     */
+    private void addStopsToRoutesInDatabase(ArrayList<Integer> stopIdList, int trip,
+                                            List<BitSet> completedRoutes, TableWriter writer) throws IOException {
+        int route = tripRouteIds[trip];
+        for (int day = 0; day < days.length; day++) {
+            if ((tripDays[trip] & days[day].mask) == 0 || completedRoutes.get(day).get(route)) {
+                continue;
             }
-        } else { //1 = inbound, want to reverse the stop sequence
-            for (int i = stopIdList.size() - 1; i >= 0; i--) {
-                currentStopId = stopIdList.get(i);
-                stopSequence = stopIdList.size() - i;
-                sb.append(String.format(
-                        "('%s', '%s', %d)",
-                        routeId,
-                        currentStopId,
-                        stopSequence
-                ));
-
-                if (i > 0) {
-                    sb.append(',');
-                }
+            completedRoutes.get(day).set(route);
 
+            if (trips.isOutbound(trip)) { //0 = outbound, retain original stop sequence
+                for (int i = 0; i < stopIdList.size(); i++) {
+                    writer.batch(day).add(route).add(stopIdList.get(i)).add(i);
+                    writer.endRow(day);
+                }
+            } else { //1 = inbound, want to reverse the stop sequence
+                for (int i = stopIdList.size() - 1; i >= 0; i--) {
+                    writer.batch(day).add(route).add(stopIdList.get(i)).add(stopIdList.size() - i);
+                    writer.endRow(day);
+                }
             }
         }
-
-        //insert all the rows for a bus/trip into routeToStop
-        try {
-            ((SQLiteDatabase) database).executeUpdate(sb.toString());
-        } catch (SQLException sqlException) {
-            sqlException.printStackTrace();
-        }
     }
 
+    /**
+     * Adds the stop times of trips as events on the days the trips run.
+     * Stop times at stops that are not in stops.txt are skipped, like those of unknown trips.
+     */
     private void addEvents(InputStream inputStream) throws IOException {
-        BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
-
-        HashMap<String, Integer> map = new HashMap<>();
-        String[] labels = br.readLine().split(",");
-        for (int i = 0; i < labels.length; i++) {
-            map.put(labels[i], i);
-        }
-
-        StringBuilder sb = null;
-        int counter = 0;
-        String line;
-        while ((line = br.readLine()) != null && !line.isEmpty()) {
-            if (counter % 10000 == 0) {
-                if (counter > 0) {
-                    try {
-                        ((SQLiteDatabase) database).executeUpdate(sb.toString());
-                    } catch (SQLException sqlException) {
-                        sqlException.printStackTrace();
-                    }
-                }
-                sb = new StringBuilder("INSERT INTO event values ");
-            } else {
-                sb.append(',');
+        CsvReader csv = new CsvReader(inputStream);
+
+        int tripIdColumn = csv.getRequiredColumn("trip_id");
+        int stopIdColumn = csv.getRequiredColumn("stop_id");
+        int arrivalTimeColumn = csv.getRequiredColumn("arrival_time");
+        int departureTimeColumn = csv.getRequiredColumn("departure_time");
+
+        TableWriter writer = new TableWriter(RowBatch.Table.EVENT);
+        while (csv.next()) {
+            int trip = trips.indexOf(csv.getField(tripIdColumn));
+            if (trip < 0 || tripDays[trip] == 0) {
+                continue;
             }
-            counter++;
-
-            String[] st = (line + ", ").split(",");
-            String busId = st[map.get("trip_id")];
-            String stopId = st[map.get("stop_id")];
-            int arrivalTime = getLogicalTimeFromTimeString(st[map.get("arrival_time")]);
-            int departureTime = getLogicalTimeFromTimeString(st[map.get("departure_time")]);
-            sb.append(String.format(
-                    "('%s', '%s', %d, %d)",
-                    busId,
-                    stopId,
-                    arrivalTime,
-                    departureTime
-            ));
-        }
-        br.close();
-
-        if (counter % 10000 > 0) {
-            try {
-                ((SQLiteDatabase) database).executeUpdate(sb.toString());
-            } catch (SQLException sqlException) {
-                sqlException.printStackTrace();
+
+            int stop = stopIds.indexOf(csv.getField(stopIdColumn));
+            if (stop < 0 || !feedStops.get(stop)) {
+                continue;
+            }
+            // stops between timepoints may leave their times empty, and the bus has no known time to be there
+            if (csv.isEmpty(arrivalTimeColumn) || csv.isEmpty(departureTimeColumn)) {
+                continue;
+            }
+            int arrivalTime = getLogicalTimeFromTimeString(csv.getField(arrivalTimeColumn));
+            int departureTime = getLogicalTimeFromTimeString(csv.getField(departureTimeColumn));
+            for (int day = 0; day < days.length; day++) {
+                if ((tripDays[trip] & days[day].mask) != 0) {
+                    writer.batch(day).add(tripBusIds[trip]).add(stop).add(arrivalTime).add(departureTime);
+                    writer.endRow(day);
+                }
             }
         }
+
+        csv.close();
+
+        writer.finish();
     }
 
     /**
-     * @param timeString in the format HH:MM:SS
+     * @param timeString in the format HH:MM:SS, where the hours may go past 24 for trips that run past midnight
      * @return the number of seconds since 00:00:00
+     * @throws NumberFormatException if the time is empty or not in the format
      */
-    int getLogicalTimeFromTimeString(String timeString) {
-        String[] time = timeString.split(":");
-        int hours = Integer.parseInt(time[0]);
-        int min = Integer.parseInt(time[0]);
-        int sec = Integer.parseInt(time[0]);
+    int getLogicalTimeFromTimeString(CharSequence timeString) {
+        int[] parts = new int[3];
+        int part = 0;
+        int digits = 0;
+        for (int i = 0; i < timeString.length(); i++) {
+            char c = timeString.charAt(i);
+            if (c == ':' && digits > 0 && part < 2) {
+                part++;
+                digits = 0;
+            } else if (c >= '0' && c <= '9') {
+                parts[part] = parts[part] * 10 + (c - '0');
+                digits++;
+            } else if (c != ' ') {
+                throw new NumberFormatException("invalid time " + timeString);
+            }
+        }
+        if (part < 2 || digits == 0) {
+            throw new NumberFormatException("invalid time " + timeString);
+        }
 
-        return sec + (60 * min) + (60 * 60 * hours);
+        return parts[2] + (60 * parts[1]) + (60 * 60 * parts[0]);
     }
 }
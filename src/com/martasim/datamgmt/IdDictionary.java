@@ -0,0 +1,107 @@
+package com.martasim.datamgmt;
+
+import java.util.Arrays;
+
+/**
+ * Numbers the distinct string ids of one kind of GTFS object, e.g. every stop_id, from 0 upwards.
+ *
+ * Tables store these numbers instead of the ids themselves, which keeps rows and indexes small and makes
+ * comparing ids as cheap as comparing ints. Numbers are never reused or changed once handed out, so rows that
+ * refer to them stay valid when more ids are added. Ids can be looked up straight from a CharSequence, so
+ * rows of a GTFS file can be translated without creating a String for every row.
+ */
+class IdDictionary {
+
+    private String[] values;
+    private int[] slots;
+    private int size;
+
+    IdDictionary() {
+        values = new String[1024];
+        slots = new int[2048];
+        Arrays.fill(slots, -1);
+    }
+
+    /**
+     * @param dictionary whose ids to start with
+     */
+    IdDictionary(IdDictionary dictionary) {
+        values = dictionary.values.clone();
+        slots = dictionary.slots.clone();
+        size = dictionary.size;
+    }
+
+    /**
+     * @param value string id
+     * @return the number of the id, which is the next unused number if the id is new
+     */
+    int add(String value) {
+        int slot = findSlot(value);
+        if (slots[slot] != -1) {
+            return slots[slot];
+        }
+
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size] = value;
+        slots[slot] = size;
+        if (++size * 2 > slots.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    /**
+     * @param value string id
+     * @return the number of the id, or -1 if it was never added
+     */
+    int indexOf(CharSequence value) {
+        return slots[findSlot(value)];
+    }
+
+    /**
+     * @param id number of the id
+     * @return the string id, or null if no id has that number
+     */
+    String get(int id) {
+        return id >= 0 && id < size ? values[id] : null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        Arrays.fill(slots, -1);
+        for (int id = 0; id < size; id++) {
+            slots[findSlot(values[id])] = id;
+        }
+    }
+
+    private int findSlot(CharSequence value) {
+        int hash = 0;
+        for (int i = 0; i < value.length(); i++) {
+            hash = 31 * hash + value.charAt(i);
+        }
+        int mask = slots.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (slots[slot] != -1 && !contentEquals(values[slots[slot]], value)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static boolean contentEquals(String value, CharSequence other) {
+        if (value.length() != other.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) != other.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,80 @@
+package com.martasim.datamgmt;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * The steps of an import and the steps each of them has to wait for.
+ *
+ * Phases are started as soon as everything they depend on has finished, so phases that do not depend on each
+ * other run at the same time when the executor has more than one thread.
+ */
+class ImportPhases {
+
+    interface Phase {
+        void run() throws IOException;
+    }
+
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+    private final Map<String, String[]> dependencies = new LinkedHashMap<>();
+
+    /**
+     * @param name of the phase
+     * @param phase work to do
+     * @param dependsOn names of phases that have to finish first, which must already have been added
+     */
+    void add(String name, Phase phase, String... dependsOn) {
+        for (String dependency : dependsOn) {
+            if (!phases.containsKey(dependency)) {
+                throw new IllegalArgumentException(name + " depends on unknown phase " + dependency);
+            }
+        }
+        phases.put(name, phase);
+        dependencies.put(name, dependsOn);
+    }
+
+    /**
+     * Runs every phase and waits for all of them to finish.
+     *
+     * @param executor that runs the phases
+     * @throws IOException if any phase failed to read its file
+     */
+    void run(Executor executor) throws IOException {
+        Map<String, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+        for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+            String name = entry.getKey();
+            Phase phase = entry.getValue();
+
+            String[] dependsOn = dependencies.get(name);
+            CompletableFuture<?>[] before = new CompletableFuture<?>[dependsOn.length];
+            for (int i = 0; i < dependsOn.length; i++) {
+                before[i] = futures.get(dependsOn[i]);
+            }
+
+            futures.put(name, CompletableFuture.allOf(before).thenRunAsync(() -> {
+                try {
+                    phase.run();
+                } catch (IOException ioException) {
+                    throw new UncheckedIOException(ioException);
+                }
+            }, executor));
+        }
+
+        try {
+            CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException completionException) {
+            Throwable cause = completionException.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw completionException;
+        }
+    }
+}
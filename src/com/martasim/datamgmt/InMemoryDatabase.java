@@ -0,0 +1,607 @@
+package com.martasim.datamgmt;
+
+import com.martasim.models.Bus;
+import com.martasim.models.Event;
+import com.martasim.models.Route;
+import com.martasim.models.Stop;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * A Database that keeps every table in memory, for simulation runs that read and write the same rows many times.
+ *
+ * Each lookup of the Database interface has a hash index of its own: buses by id and by route, stops by id,
+ * routes by id and by stop, and events by bus, stop, departure time and arrival time. Events by arrival time
+ * are kept sorted, so time ranges are read without scanning. Like SQLiteDatabase it stores copies of the objects
+ * it is given and hands out new objects on every read, so changing a returned object doesn't change the
+ * database until it is passed to an update method.
+ * There is nothing to write to disk, so inTransaction simply runs the transaction and doesn't undo its changes
+ * if it throws.
+ */
+public class InMemoryDatabase implements Database {
+
+    /**
+     * Order of events within a page, the same order for every call so pages can continue after an event.
+     * Ties in arrival time are broken by the ids themselves, not by the numbers SQLiteDatabase stores them as,
+     * so a page can't continue after an event from a page of the file.
+     */
+    private static final Comparator<Event> EVENT_ORDER = Comparator.comparingInt(Event::getArrivalTime)
+            .thenComparing(Event::getBusId)
+            .thenComparing(Event::getStopId)
+            .thenComparingInt(Event::getDepartureTime);
+
+    private final File file;
+    private final boolean flushOnClose;
+
+    private final Map<String, BusRow> buses = new LinkedHashMap<>();
+    private final Map<String, Set<String>> busesByRoute = new HashMap<>();
+    private final Map<String, Route> routes = new LinkedHashMap<>();
+    private final Map<String, List<String>> routeStops = new HashMap<>();
+    private final Map<String, Integer> firstStopIndexes = new HashMap<>();
+    private final Map<String, Set<String>> routesByStop = new HashMap<>();
+    private final Map<String, Stop> stops = new LinkedHashMap<>();
+    private final Map<String, List<Event>> eventsByBus = new HashMap<>();
+    private final Map<String, List<Event>> eventsByStop = new HashMap<>();
+    private final TreeMap<Integer, List<Event>> eventsByArrivalTime = new TreeMap<>();
+    private final Map<Integer, List<Event>> eventsByDepartureTime = new HashMap<>();
+
+    /**
+     * Creates an empty database that isn't saved anywhere.
+     */
+    public InMemoryDatabase() {
+        this(null, false);
+    }
+
+    /**
+     * @param file the database is flushed to, or null if it is never saved
+     * @param flushOnClose whether close flushes the database to the file
+     */
+    InMemoryDatabase(File file, boolean flushOnClose) {
+        this.file = file;
+        this.flushOnClose = flushOnClose;
+    }
+
+    /**
+     * Bus columns without the Route, which is looked up by its id whenever the bus is read,
+     * so the bus always has the route's current stops.
+     */
+    private static class BusRow {
+        final String id;
+        final String routeId;
+        final boolean outbound;
+        final int currentStop;
+        final double latitude;
+        final double longitude;
+        final int passengers;
+        final int passengerCapacity;
+        final double fuel;
+        final double fuelCapacity;
+        final double speed;
+
+        BusRow(Bus bus) {
+            id = bus.getId();
+            routeId = bus.getRoute() == null ? null : bus.getRoute().getId();
+            outbound = bus.isOutbound();
+            currentStop = bus.getCurrentStopIndex();
+            latitude = bus.getLatitude();
+            longitude = bus.getLongitude();
+            passengers = bus.getPassengers();
+            passengerCapacity = bus.getPassengerCapacity();
+            fuel = bus.getFuel();
+            fuelCapacity = bus.getFuelCapacity();
+            speed = bus.getSpeed();
+        }
+
+        Bus toBus(Route route) {
+            return new Bus(id, route, outbound, currentStop, latitude, longitude, passengers, passengerCapacity,
+                    fuel, fuelCapacity, speed);
+        }
+    }
+
+    /**
+     * Copies every table of a database file into this one.
+     *
+     * @param database to copy from
+     * @throws SQLException
+     */
+    void load(SQLiteDatabase database) throws SQLException {
+        for (Stop stop : database.getAllStops()) {
+            addStop(stop);
+        }
+        for (Route route : database.getAllRoutes()) {
+            addRoute(route);
+            for (Stop stop : route.getStops()) {
+                add(routeStops, route.getId(), stop.getId());
+                addToSet(routesByStop, stop.getId(), route.getId());
+            }
+        }
+        // flush numbers the stops of these routes the way the file does
+        firstStopIndexes.putAll(database.getFirstStopIndexes());
+        try (Stream<Bus> buses = database.streamAllBuses()) {
+            buses.forEach(this::putBus);
+        }
+        try (Stream<Event> events = database.streamAllEvents()) {
+            events.forEach(this::putEvent);
+        }
+    }
+
+    /**
+     * Replaces the contents of the file the database was loaded from with the contents of this database.
+     * The ids the file already numbered keep their numbers, and the file's import records are kept,
+     * so it can still be updated from a newer GTFS feed. Stops of a route loaded from the file are numbered
+     * from the same stopIndex as in the file.
+     * Everything is written in one transaction, so if the flush fails the file stays as it was.
+     *
+     * @throws SQLException
+     */
+    public void flush() throws SQLException {
+        if (file == null) {
+            throw new IllegalStateException("the database was not loaded from a file");
+        }
+
+        SQLiteDatabase database = new SQLiteDatabase(file);
+        try {
+            database.inTransaction(transaction -> {
+                IdDictionary busIds = new IdDictionary(database.getIds(SQLiteDatabase.BUS_IDS));
+                IdDictionary routeIds = new IdDictionary(database.getIds(SQLiteDatabase.ROUTE_IDS));
+                IdDictionary stopIds = new IdDictionary(database.getIds(SQLiteDatabase.STOP_IDS));
+
+                database.dropIndexes();
+                for (RowBatch.Table table : RowBatch.Table.values()) {
+                    database.executeUpdate("DELETE FROM " + table.name);
+                }
+
+                try (SQLiteDatabase.BulkInsert insert = database.bulkInsert(RowBatch.Table.ROUTE.name, RowBatch.Table.ROUTE.columns.length)) {
+                    for (Route route : routes.values()) {
+                        insert.addRow(routeIds.add(route.getId()), route.getShortName(), route.getName());
+                    }
+                }
+                try (SQLiteDatabase.BulkInsert insert = database.bulkInsert(RowBatch.Table.ROUTE_TO_STOP.name, RowBatch.Table.ROUTE_TO_STOP.columns.length)) {
+                    for (Map.Entry<String, List<String>> route : routeStops.entrySet()) {
+                        int firstStopIndex = firstStopIndexes.getOrDefault(route.getKey(), 0);
+                        for (int stopIndex = 0; stopIndex < route.getValue().size(); stopIndex++) {
+                            insert.addRow(routeIds.add(route.getKey()), stopIds.add(route.getValue().get(stopIndex)),
+                                    firstStopIndex + stopIndex);
+                        }
+                    }
+                }
+                try (SQLiteDatabase.BulkInsert insert = database.bulkInsert(RowBatch.Table.STOP.name, RowBatch.Table.STOP.columns.length)) {
+                    for (Stop stop : stops.values()) {
+                        insert.addRow(stopIds.add(stop.getId()), stop.getName(), stop.getRiders(), stop.getPreviousRiders(),
+                                stop.getLatitude(), stop.getLongitude());
+                    }
+                }
+                try (SQLiteDatabase.BulkInsert insert = database.bulkInsert(RowBatch.Table.BUS.name, RowBatch.Table.BUS.columns.length)) {
+                    for (BusRow bus : buses.values()) {
+                        insert.addRow(busIds.add(bus.id), bus.routeId == null ? null : routeIds.add(bus.routeId),
+                                bus.outbound ? 0 : 1, bus.currentStop, bus.latitude, bus.longitude, bus.passengers,
+                                bus.passengerCapacity, bus.fuel, bus.fuelCapacity, bus.speed);
+                    }
+                }
+                try (SQLiteDatabase.BulkInsert insert = database.bulkInsert(RowBatch.Table.EVENT.name, RowBatch.Table.EVENT.columns.length)) {
+                    for (List<Event> events : eventsByArrivalTime.values()) {
+                        for (Event event : events) {
+                            insert.addRow(busIds.add(event.getBusId()), stopIds.add(event.getStopId()),
+                                    event.getArrivalTime(), event.getDepartureTime());
+                        }
+                    }
+                }
+
+                database.saveIds(SQLiteDatabase.BUS_IDS, busIds);
+                database.saveIds(SQLiteDatabase.ROUTE_IDS, routeIds);
+                database.saveIds(SQLiteDatabase.STOP_IDS, stopIds);
+                database.createIndexes();
+                database.analyze();
+            });
+        } finally {
+            database.close();
+        }
+    }
+
+    @Override
+    public void clear() {
+        buses.clear();
+        busesByRoute.clear();
+        routes.clear();
+        routeStops.clear();
+        firstStopIndexes.clear();
+        routesByStop.clear();
+        stops.clear();
+        eventsByBus.clear();
+        eventsByStop.clear();
+        eventsByArrivalTime.clear();
+        eventsByDepartureTime.clear();
+    }
+
+    /**
+     * Flushes the database to its file first if it was created to do so.
+     */
+    @Override
+    public void close() throws SQLException {
+        if (flushOnClose) {
+            flush();
+        }
+    }
+
+    private static <K, V> void add(Map<K, List<V>> index, K key, V value) {
+        index.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+    }
+
+    private static <K, V> void addToSet(Map<K, Set<V>> index, K key, V value) {
+        index.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(value);
+    }
+
+    private static <K, V> void remove(Map<K, ? extends Collection<V>> index, K key, V value) {
+        Collection<V> values = index.get(key);
+        if (values != null) {
+            values.removeIf(value::equals);
+            if (values.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static Event copy(Event event) {
+        return new Event(event.getBusId(), event.getStopId(), event.getArrivalTime(), event.getDepartureTime());
+    }
+
+    private static Stop copy(Stop stop) {
+        return new Stop(stop.getId(), stop.getName(), stop.getRiders(), stop.getPreviousRiders(),
+                stop.getLatitude(), stop.getLongitude());
+    }
+
+    private static List<Event> copy(Collection<Event> events) {
+        List<Event> copies = new ArrayList<>(events.size());
+        for (Event event : events) {
+            copies.add(copy(event));
+        }
+        return copies;
+    }
+
+    private void putBus(Bus bus) {
+        BusRow old = buses.put(bus.getId(), new BusRow(bus));
+        if (old != null) {
+            remove(busesByRoute, old.routeId, old.id);
+        }
+        addToSet(busesByRoute, buses.get(bus.getId()).routeId, bus.getId());
+    }
+
+    private void putEvent(Event event) {
+        Event copy = copy(event);
+        add(eventsByBus, copy.getBusId(), copy);
+        add(eventsByStop, copy.getStopId(), copy);
+        add(eventsByArrivalTime, copy.getArrivalTime(), copy);
+        add(eventsByDepartureTime, copy.getDepartureTime(), copy);
+    }
+
+    /**
+     * @return the number of events that were equal to the event and removed
+     */
+    private int removeEvents(Event event) {
+        List<Event> events = eventsByArrivalTime.get(event.getArrivalTime());
+        int count = 0;
+        if (events != null) {
+            for (Event other : events) {
+                if (other.equals(event)) {
+                    count++;
+                }
+            }
+        }
+        if (count > 0) {
+            remove(eventsByBus, event.getBusId(), event);
+            remove(eventsByStop, event.getStopId(), event);
+            remove(eventsByArrivalTime, event.getArrivalTime(), event);
+            remove(eventsByDepartureTime, event.getDepartureTime(), event);
+        }
+        return count;
+    }
+
+    @Override
+    public void addBus(Bus bus) {
+        putBus(bus);
+    }
+
+    @Override
+    public void addEvent(Event event) {
+        putEvent(event);
+    }
+
+    @Override
+    public void addRoute(Route route) {
+        routes.put(route.getId(), new Route(route.getId(), route.getShortName(), route.getName()));
+    }
+
+    @Override
+    public void addStop(Stop stop) {
+        stops.put(stop.getId(), copy(stop));
+    }
+
+    @Override
+    public void updateBus(Bus bus) {
+        if (buses.containsKey(bus.getId())) {
+            putBus(bus);
+        }
+    }
+
+    @Override
+    public void updateEvent(Event oldEvent, Event newEvent) {
+        for (int count = removeEvents(oldEvent); count > 0; count--) {
+            putEvent(newEvent);
+        }
+    }
+
+    @Override
+    public void updateRoute(Route route) {
+        Route stored = routes.get(route.getId());
+        if (stored != null) {
+            stored.setShortName(route.getShortName());
+            stored.setName(route.getName());
+        }
+    }
+
+    @Override
+    public void extendRoute(Route route, Stop stop) {
+        add(routeStops, route.getId(), stop.getId());
+        addToSet(routesByStop, stop.getId(), route.getId());
+        route.extend(stop);
+    }
+
+    @Override
+    public void updateStop(Stop stop) {
+        if (stops.containsKey(stop.getId())) {
+            stops.put(stop.getId(), copy(stop));
+        }
+    }
+
+    @Override
+    public Bus getBus(String id) {
+        BusRow bus = buses.get(id);
+        return bus == null ? null : bus.toBus(getRoute(bus.routeId));
+    }
+
+    @Override
+    public Route getRoute(String id) {
+        return getRoute(id, new HashMap<>());
+    }
+
+    /**
+     * @param stopCopies copies of the stops that were already handed out in this call, by id
+     */
+    private Route getRoute(String id, Map<String, Stop> stopCopies) {
+        Route route = id == null ? null : routes.get(id);
+        if (route == null) {
+            return null;
+        }
+        Route copy = new Route(route.getId(), route.getShortName(), route.getName());
+        for (String stopId : routeStops.getOrDefault(id, Collections.emptyList())) {
+            Stop stop = stops.get(stopId);
+            if (stop != null) {
+                copy.extend(stopCopies.computeIfAbsent(stopId, key -> copy(stop)));
+            }
+        }
+        return copy;
+    }
+
+    @Override
+    public Stop getStop(String id) {
+        Stop stop = stops.get(id);
+        return stop == null ? null : copy(stop);
+    }
+
+    @Override
+    public Collection<Bus> getAllBuses() {
+        return getBuses(buses.values());
+    }
+
+    @Override
+    public Collection<Bus> getAllBuses(String routeId) {
+        List<BusRow> rows = new ArrayList<>();
+        for (String busId : busesByRoute.getOrDefault(routeId, Collections.emptySet())) {
+            rows.add(buses.get(busId));
+        }
+        return getBuses(rows);
+    }
+
+    /**
+     * Turns rows into buses, with the buses of a route sharing one Route.
+     */
+    private List<Bus> getBuses(Collection<BusRow> rows) {
+        Map<String, Route> routeCopies = new HashMap<>();
+        Map<String, Stop> stopCopies = new HashMap<>();
+        List<Bus> buses = new ArrayList<>(rows.size());
+        for (BusRow bus : rows) {
+            Route route = bus.routeId == null ? null
+                    : routeCopies.computeIfAbsent(bus.routeId, id -> getRoute(id, stopCopies));
+            buses.add(bus.toBus(route));
+        }
+        return buses;
+    }
+
+    @Override
+    public Stream<Bus> streamAllBuses() {
+        return getAllBuses().stream();
+    }
+
+    @Override
+    public Collection<Event> getAllEvents() {
+        List<Event> events = new ArrayList<>();
+        for (List<Event> eventsAtTime : eventsByArrivalTime.values()) {
+            events.addAll(copy(eventsAtTime));
+        }
+        return events;
+    }
+
+    @Override
+    public Stream<Event> streamAllEvents() {
+        return eventsByArrivalTime.values().stream()
+                .flatMap(events -> new ArrayList<>(events).stream())
+                .map(InMemoryDatabase::copy);
+    }
+
+    @Override
+    public Collection<Event> getAllEventsWithBusId(String busId) {
+        return copy(eventsByBus.getOrDefault(busId, Collections.emptyList()));
+    }
+
+    @Override
+    public Collection<Event> getAllEventsWithStopId(String stopId) {
+        return copy(eventsByStop.getOrDefault(stopId, Collections.emptyList()));
+    }
+
+    @Override
+    public Collection<Event> getAllEventsWithArrivalTime(int arrivalTime) {
+        return copy(eventsByArrivalTime.getOrDefault(arrivalTime, Collections.emptyList()));
+    }
+
+    @Override
+    public List<Event> getAllEventsWithArrivalTime(int from, int to) {
+        return getEventPage(from, to, null, null, null, -1);
+    }
+
+    /**
+     * Events arriving at the same time are ordered by bus id, stop id and departure time.
+     *
+     * @param limit maximum number of events on the page, or a negative number for no limit
+     */
+    @Override
+    public List<Event> getEventPage(int from, int to, String stopId, String routeId, Event after, int limit) {
+        List<Event> page = new ArrayList<>();
+        if (from >= to) {
+            return page;
+        }
+        if (after != null && after.getArrivalTime() > from) {
+            from = after.getArrivalTime();
+        }
+
+        Iterator<List<Event>> times = eventsByArrivalTime.subMap(from, to).values().iterator();
+        while (times.hasNext() && (limit < 0 || page.size() < limit)) {
+            List<Event> events = new ArrayList<>(times.next());
+            events.sort(EVENT_ORDER);
+            for (Event event : events) {
+                if (limit >= 0 && page.size() == limit) {
+                    break;
+                }
+                if ((after != null && EVENT_ORDER.compare(event, after) <= 0)
+                        || (stopId != null && !stopId.equals(event.getStopId()))
+                        || (routeId != null && !isOnRoute(event.getBusId(), routeId))) {
+                    continue;
+                }
+                page.add(copy(event));
+            }
+        }
+        return page;
+    }
+
+    private boolean isOnRoute(String busId, String routeId) {
+        BusRow bus = buses.get(busId);
+        return bus != null && routeId.equals(bus.routeId);
+    }
+
+    @Override
+    public Collection<Event> getAllEventsWithDepartureTime(int departureTime) {
+        return copy(eventsByDepartureTime.getOrDefault(departureTime, Collections.emptyList()));
+    }
+
+    @Override
+    public Collection<Route> getAllRoutes() {
+        Map<String, Stop> stopCopies = new HashMap<>();
+        List<Route> routes = new ArrayList<>(this.routes.size());
+        for (String id : this.routes.keySet()) {
+            routes.add(getRoute(id, stopCopies));
+        }
+        return routes;
+    }
+
+    @Override
+    public Collection<Stop> getAllStops() {
+        List<Stop> stops = new ArrayList<>(this.stops.size());
+        for (Stop stop : this.stops.values()) {
+            stops.add(copy(stop));
+        }
+        return stops;
+    }
+
+    @Override
+    public Stream<Stop> streamAllStops() {
+        return getAllStops().stream();
+    }
+
+    @Override
+    public List<Stop> getAllStops(String routeId) {
+        List<Stop> stops = new ArrayList<>();
+        for (String stopId : routeStops.getOrDefault(routeId, Collections.emptyList())) {
+            Stop stop = this.stops.get(stopId);
+            if (stop != null) {
+                stops.add(copy(stop));
+            }
+        }
+        return stops;
+    }
+
+    @Override
+    public void removeBus(Bus bus) {
+        BusRow removed = buses.remove(bus.getId());
+        if (removed != null) {
+            remove(busesByRoute, removed.routeId, removed.id);
+        }
+    }
+
+    @Override
+    public void removeEvent(Event event) {
+        removeEvents(event);
+    }
+
+    @Override
+    public void removeRoute(Route route) {
+        routes.remove(route.getId());
+        firstStopIndexes.remove(route.getId());
+        List<String> stopIds = routeStops.remove(route.getId());
+        if (stopIds != null) {
+            for (String stopId : stopIds) {
+                remove(routesByStop, stopId, route.getId());
+            }
+        }
+    }
+
+    @Override
+    public void removeFromRoute(Route route, Stop stop) {
+        route.getStops().remove(stop);
+        removeFromRoute(route.getId(), stop.getId());
+    }
+
+    @Override
+    public void removeFromRoute(String routeId, String stopId) {
+        remove(routeStops, routeId, stopId);
+        remove(routesByStop, stopId, routeId);
+    }
+
+    @Override
+    public void removeStop(Stop stop) {
+        removeStop(stop.getId());
+    }
+
+    @Override
+    public void removeStop(String stopId) {
+        Set<String> routeIds = routesByStop.remove(stopId);
+        if (routeIds != null) {
+            for (String routeId : routeIds) {
+                remove(routeStops, routeId, stopId);
+            }
+        }
+        stops.remove(stopId);
+    }
+}
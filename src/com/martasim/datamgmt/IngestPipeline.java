@@ -0,0 +1,276 @@
+package com.martasim.datamgmt;
+
+import java.io.InterruptedIOException;
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hands rows from the threads parsing GTFS files to one thread that writes them into the database.
+ *
+ * Only a fixed number of batches can wait in the queue. Parsers that get ahead of the database block until the
+ * writer catches up, so memory use does not depend on the size of the feed.
+ */
+class IngestPipeline implements AutoCloseable {
+
+    static final int ROWS_PER_BATCH = 10000;
+
+    private static final Object END = new Object();
+
+    private final SQLiteDatabase database;
+    private final String tableSuffix;
+    private final BlockingQueue<Object> queue;
+    private final Thread writer;
+    private final Map<RowBatch.Table, SQLiteDatabase.BulkInsert> bulkInserts = new EnumMap<>(RowBatch.Table.class);
+    private volatile SQLException failure;
+
+    private final Map<RowBatch.Table, LongAdder> rowsParsed = new EnumMap<>(RowBatch.Table.class);
+    private final Map<RowBatch.Table, LongAdder> rowsWritten = new EnumMap<>(RowBatch.Table.class);
+    private final Map<RowBatch.Table, LongAdder> nanosWriting = new EnumMap<>(RowBatch.Table.class);
+    private final LongAdder nanosBlocked = new LongAdder();
+    private final long startTime = System.nanoTime();
+    private long endTime;
+
+    /**
+     * Starts the writer thread.
+     *
+     * @param database to write into
+     * @param capacity number of batches that can wait to be written
+     */
+    IngestPipeline(SQLiteDatabase database, int capacity) {
+        this(database, capacity, "");
+    }
+
+    /**
+     * Starts the writer thread.
+     *
+     * @param database to write into
+     * @param capacity number of batches that can wait to be written
+     * @param tableSuffix added to the name of every table rows are written to, e.g. to write into staging tables
+     */
+    IngestPipeline(SQLiteDatabase database, int capacity, String tableSuffix) {
+        this.database = database;
+        this.tableSuffix = tableSuffix;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        for (RowBatch.Table table : RowBatch.Table.values()) {
+            rowsParsed.put(table, new LongAdder());
+            rowsWritten.put(table, new LongAdder());
+            nanosWriting.put(table, new LongAdder());
+        }
+        writer = new Thread(this::drain, "gtfs-writer");
+        writer.start();
+    }
+
+    RowBatch newBatch(RowBatch.Table table) {
+        return new RowBatch(table, ROWS_PER_BATCH);
+    }
+
+    /**
+     * Queues a batch to be written, waiting while the queue is full.
+     *
+     * @param batch of rows
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    void put(RowBatch batch) throws InterruptedIOException {
+        if (batch.size() == 0) {
+            return;
+        }
+        rowsParsed.get(batch.table).add(batch.size());
+        enqueue(batch);
+    }
+
+    /**
+     * Writes all rows queued for the table so far. Call once the table has been parsed.
+     *
+     * @param table that is finished
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    void finish(RowBatch.Table table) throws InterruptedIOException {
+        enqueue(table);
+    }
+
+    private void enqueue(Object item) throws InterruptedIOException {
+        long start = System.nanoTime();
+        try {
+            queue.put(item);
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the database writer");
+        }
+        nanosBlocked.add(System.nanoTime() - start);
+    }
+
+    /**
+     * Writes everything in one transaction, so an import that fails part way leaves the database as it was.
+     */
+    private void drain() {
+        try {
+            database.beginBulkLoad();
+        } catch (SQLException sqlException) {
+            fail(sqlException);
+        }
+
+        try {
+            database.inTransaction(transaction -> {
+                // staging tables have no indexes, the real tables get theirs back once every row is in
+                if (failure == null && tableSuffix.isEmpty()) {
+                    database.dropIndexes();
+                }
+                takeBatches();
+                for (SQLiteDatabase.BulkInsert bulkInsert : bulkInserts.values()) {
+                    bulkInsert.close();
+                }
+                bulkInserts.clear();
+                if (failure != null) {
+                    throw failure;
+                }
+                if (tableSuffix.isEmpty()) {
+                    database.createIndexes();
+                    database.analyze();
+                }
+            });
+        } catch (SQLException sqlException) {
+            fail(sqlException);
+        }
+
+        try {
+            database.endBulkLoad();
+        } catch (SQLException sqlException) {
+            fail(sqlException);
+        }
+    }
+
+    /**
+     * Records the first failure, which rolls back the import and is thrown by close.
+     */
+    private synchronized void fail(SQLException sqlException) {
+        if (failure == null) {
+            failure = sqlException;
+        }
+    }
+
+    private void takeBatches() {
+        while (true) {
+            Object item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException interruptedException) {
+                fail(new SQLException("interrupted while writing the import", interruptedException));
+                break;
+            }
+            if (item == END) {
+                break;
+            }
+            // after a failure keep taking batches so parsers never block on a full queue
+            if (failure != null) {
+                continue;
+            }
+
+            try {
+                if (item instanceof RowBatch) {
+                    write((RowBatch) item);
+                } else {
+                    SQLiteDatabase.BulkInsert bulkInsert = bulkInserts.remove(item);
+                    if (bulkInsert != null) {
+                        bulkInsert.close();
+                    }
+                }
+            } catch (SQLException sqlException) {
+                fail(sqlException);
+            } catch (RuntimeException runtimeException) {
+                // keeps the writer alive, so close still ends the transaction and reports the failure
+                fail(new SQLException("could not write " + item, runtimeException));
+            }
+        }
+    }
+
+    private void write(RowBatch batch) throws SQLException {
+        long start = System.nanoTime();
+        SQLiteDatabase.BulkInsert bulkInsert = bulkInserts.get(batch.table);
+        if (bulkInsert == null) {
+            bulkInsert = database.bulkInsert(batch.table.name + tableSuffix, batch.table.columns.length);
+            bulkInserts.put(batch.table, bulkInsert);
+        }
+        batch.writeTo(bulkInsert);
+        rowsWritten.get(batch.table).add(batch.size());
+        nanosWriting.get(batch.table).add(System.nanoTime() - start);
+    }
+
+    long getRowsParsed(RowBatch.Table table) {
+        return rowsParsed.get(table).sum();
+    }
+
+    long getRowsWritten(RowBatch.Table table) {
+        return rowsWritten.get(table).sum();
+    }
+
+    /**
+     * @return rows per second the writer inserted into the table, only counting time spent writing
+     */
+    double getWriteRate(RowBatch.Table table) {
+        long nanos = nanosWriting.get(table).sum();
+        return nanos == 0 ? 0 : getRowsWritten(table) * 1e9 / nanos;
+    }
+
+    /**
+     * @return milliseconds parsers spent waiting for room in the queue
+     */
+    long getMillisBlocked() {
+        return nanosBlocked.sum() / 1000000;
+    }
+
+    /**
+     * Waits for every queued batch to be written and committed.
+     *
+     * @throws SQLException if any write failed
+     */
+    @Override
+    public void close() throws SQLException {
+        end();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Rolls back everything queued so far instead of committing it, e.g. because a parser failed,
+     * and waits for the writer to finish.
+     *
+     * @param cause of the abort
+     */
+    void abort(Exception cause) {
+        fail(new SQLException("import aborted", cause));
+        end();
+    }
+
+    private void end() {
+        try {
+            queue.put(END);
+            writer.join();
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            writer.interrupt();
+        }
+        endTime = System.nanoTime();
+    }
+
+    @Override
+    public String toString() {
+        double seconds = ((endTime == 0 ? System.nanoTime() : endTime) - startTime) / 1e9;
+        StringBuilder sb = new StringBuilder();
+        for (RowBatch.Table table : RowBatch.Table.values()) {
+            sb.append(String.format("%s: parsed %d rows (%.0f rows/s), wrote %d rows (%.0f rows/s)%n",
+                    table.name,
+                    getRowsParsed(table),
+                    getRowsParsed(table) / seconds,
+                    getRowsWritten(table),
+                    getWriteRate(table)
+            ));
+        }
+        sb.append(String.format("parsers waited %d ms for the writer", getMillisBlocked()));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,93 @@
+package com.martasim.datamgmt;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed number of read-only connections to a database file that one other connection writes to.
+ *
+ * The writer renumbers the ids whenever it clears the database, so once a clear is committed the writer
+ * reports it with cleared, and every connection drops the ids it loaded the next time it is borrowed.
+ * New ids are loaded by the connection itself when it comes across them.
+ */
+class ReadConnections {
+
+    /**
+     * A read connection, and how many clears of the writer it has dropped its ids for.
+     */
+    static class Reader {
+        final SQLiteDatabase database;
+        int clearsSeen;
+
+        Reader(SQLiteDatabase database) {
+            this.database = database;
+        }
+    }
+
+    private final BlockingQueue<Reader> readers;
+    private final int size;
+    private final AtomicInteger clears = new AtomicInteger();
+
+    /**
+     * @param file of an existing database, whose writer switched it to write-ahead logging
+     * @param size number of connections
+     * @throws SQLException
+     */
+    ReadConnections(File file, int size) throws SQLException {
+        this.size = size;
+        readers = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            SQLiteDatabase reader = new SQLiteDatabase(file);
+            reader.setQueryOnly();
+            readers.add(new Reader(reader));
+        }
+    }
+
+    /**
+     * Waits for a free connection.
+     *
+     * @return the connection, which has to be given back once the read is done
+     * @throws SQLException if interrupted while waiting
+     */
+    Reader borrow() throws SQLException {
+        Reader reader;
+        try {
+            reader = readers.take();
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for a read connection", interruptedException);
+        }
+        int clearsDone = clears.get();
+        if (reader.clearsSeen != clearsDone) {
+            reader.database.forgetIds();
+            reader.clearsSeen = clearsDone;
+        }
+        return reader;
+    }
+
+    void giveBack(Reader reader) {
+        readers.add(reader);
+    }
+
+    /**
+     * Records that the writer committed a clear. Call it only after the commit, or a connection may reload
+     * the old ids from before it.
+     */
+    void cleared() {
+        clears.incrementAndGet();
+    }
+
+    /**
+     * Waits for every connection to be given back, then closes them.
+     *
+     * @throws SQLException
+     */
+    void close() throws SQLException {
+        for (int i = 0; i < size; i++) {
+            borrow().database.close();
+        }
+    }
+}
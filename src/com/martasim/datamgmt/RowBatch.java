@@ -0,0 +1,133 @@
+package com.martasim.datamgmt;
+
+import java.sql.SQLException;
+
+import static com.martasim.datamgmt.RowBatch.ColumnType.DOUBLE;
+import static com.martasim.datamgmt.RowBatch.ColumnType.INT;
+import static com.martasim.datamgmt.RowBatch.ColumnType.STRING;
+
+/**
+ * A fixed number of rows for one table, stored column by column in primitive arrays.
+ *
+ * Values are appended in column order, e.g. batch.add(stop).add(name).add(0).add(0).add(lat).add(lon).endRow()
+ */
+class RowBatch {
+
+    enum ColumnType {
+        STRING,
+        INT,
+        DOUBLE
+    }
+
+    enum Table {
+        ROUTE("route", new String[] {"routes.txt", "trips.txt", "calendar.txt"},
+                INT, STRING, STRING),
+        STOP("stop", new String[] {"stops.txt"},
+                INT, STRING, INT, INT, DOUBLE, DOUBLE),
+        BUS("bus", new String[] {"trips.txt", "calendar.txt", "shapes.txt"},
+                INT, INT, INT, INT, DOUBLE, DOUBLE, INT, INT, DOUBLE, DOUBLE, DOUBLE),
+        ROUTE_TO_STOP("routeToStop", new String[] {"stop_times.txt", "stops.txt", "trips.txt", "calendar.txt"},
+                INT, INT, INT),
+        EVENT("event", new String[] {"stop_times.txt", "stops.txt", "trips.txt", "calendar.txt"},
+                INT, INT, INT, INT);
+
+        final String name;
+        final String[] sources;
+        final ColumnType[] columns;
+
+        /**
+         * @param name of the table in the database
+         * @param sources GTFS files the rows of the table are built from
+         * @param columns types of the table's columns
+         */
+        Table(String name, String[] sources, ColumnType... columns) {
+            this.name = name;
+            this.sources = sources;
+            this.columns = columns;
+        }
+    }
+
+    final Table table;
+    private final Object[] columns;
+    private final int capacity;
+    private int size;
+    private int column;
+
+    RowBatch(Table table, int capacity) {
+        this.table = table;
+        this.capacity = capacity;
+        this.columns = new Object[table.columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            switch (table.columns[i]) {
+                case STRING:
+                    columns[i] = new String[capacity];
+                    break;
+                case INT:
+                    columns[i] = new int[capacity];
+                    break;
+                case DOUBLE:
+                    columns[i] = new double[capacity];
+                    break;
+            }
+        }
+    }
+
+    RowBatch add(String value) {
+        ((String[]) columns[column++])[size] = value;
+        return this;
+    }
+
+    RowBatch add(int value) {
+        ((int[]) columns[column++])[size] = value;
+        return this;
+    }
+
+    RowBatch add(double value) {
+        ((double[]) columns[column++])[size] = value;
+        return this;
+    }
+
+    /**
+     * Finishes the current row.
+     *
+     * @throws IllegalStateException if not every column of the row was added
+     */
+    void endRow() {
+        if (column != columns.length) {
+            throw new IllegalStateException(table.name + " rows have " + columns.length + " columns, got " + column);
+        }
+        column = 0;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * @param bulkInsert for this batch's table
+     * @throws SQLException
+     */
+    void writeTo(SQLiteDatabase.BulkInsert bulkInsert) throws SQLException {
+        for (int row = 0; row < size; row++) {
+            for (int i = 0; i < columns.length; i++) {
+                switch (table.columns[i]) {
+                    case STRING:
+                        bulkInsert.setString(i + 1, ((String[]) columns[i])[row]);
+                        break;
+                    case INT:
+                        bulkInsert.setInt(i + 1, ((int[]) columns[i])[row]);
+                        break;
+                    case DOUBLE:
+                        bulkInsert.setDouble(i + 1, ((double[]) columns[i])[row]);
+                        break;
+                }
+            }
+            bulkInsert.addRow();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.martasim.datamgmt;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterates over the rows of a ResultSet, turning each row into an object only when it is reached.
+ *
+ * Only the current row is held in memory, so a whole table can be processed without loading it into a list.
+ * The ResultSet is closed once the last row was read or when the cursor is closed, whichever comes first.
+ * SQLExceptions thrown while iterating are wrapped in an IllegalStateException, since Iterator can't throw them.
+ *
+ * @param <T> type the rows are turned into
+ */
+class RowCursor<T> implements Iterator<T>, AutoCloseable {
+
+    interface RowMapper<T> {
+        T map(ResultSet resultSet) throws SQLException;
+    }
+
+    private final ResultSet resultSet;
+    private final RowMapper<T> mapper;
+    private boolean hasRow;
+    private boolean moved;
+
+    /**
+     * @param resultSet whose rows to iterate over, its statement should close on completion
+     * @param mapper turning the current row of the ResultSet into an object
+     */
+    RowCursor(ResultSet resultSet, RowMapper<T> mapper) {
+        this.resultSet = resultSet;
+        this.mapper = mapper;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!moved) {
+            try {
+                hasRow = !resultSet.isClosed() && resultSet.next();
+                if (!hasRow) {
+                    resultSet.close();
+                }
+            } catch (SQLException sqlException) {
+                throw new IllegalStateException(sqlException);
+            }
+            moved = true;
+        }
+        return hasRow;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        moved = false;
+        try {
+            return mapper.map(resultSet);
+        } catch (SQLException sqlException) {
+            throw new IllegalStateException(sqlException);
+        }
+    }
+
+    /**
+     * Closes the ResultSet, which is only needed if not every row was read.
+     */
+    @Override
+    public void close() {
+        try {
+            resultSet.close();
+        } catch (SQLException sqlException) {
+            throw new IllegalStateException(sqlException);
+        }
+    }
+
+    /**
+     * @return a sequential Stream of the remaining rows that closes the cursor when it is closed
+     */
+    Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+}
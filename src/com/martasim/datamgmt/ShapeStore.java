@@ -0,0 +1,242 @@
+package com.martasim.datamgmt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Every shape in shapes.txt, read in a single pass.
+ *
+ * The points of all shapes are stored back to back in primitive arrays, ordered by shape and then by
+ * shape_pt_sequence. Shapes are numbered in the order they first appear by an IdDictionary, are addressed by
+ * that number and offsets[shape] is the position of their first point. For every point the distance travelled
+ * along the shape up to it is stored as well, so points at a distance can be found with a binary search.
+ */
+class ShapeStore {
+
+    private static final double EARTH_RADIUS_METERS = 6371008.8;
+
+    private final IdDictionary shapeIds = new IdDictionary();
+    private int[] offsets;
+    private double[] latitudes;
+    private double[] longitudes;
+    private double[] distances;
+    private double[] minLatitudes;
+    private double[] minLongitudes;
+    private double[] maxLatitudes;
+    private double[] maxLongitudes;
+
+    /**
+     * @param inputStream of shapes.txt
+     * @return every shape in the file
+     * @throws IOException
+     */
+    static ShapeStore read(InputStream inputStream) throws IOException {
+        CsvReader csv = new CsvReader(inputStream);
+        int shapeIdColumn = csv.getRequiredColumn("shape_id");
+        int latColumn = csv.getRequiredColumn("shape_pt_lat");
+        int lonColumn = csv.getRequiredColumn("shape_pt_lon");
+        int sequenceColumn = csv.getRequiredColumn("shape_pt_sequence");
+
+        ShapeStore store = new ShapeStore();
+        int[] rowShapes = new int[1024];
+        int[] sequences = new int[1024];
+        double[] latitudes = new double[1024];
+        double[] longitudes = new double[1024];
+        int rows = 0;
+
+        // rows of a shape are usually next to each other, so the id only has to be looked up when it changes
+        int shape = -1;
+        while (csv.next()) {
+            if (shape < 0 || !csv.fieldEquals(shapeIdColumn, store.shapeIds.get(shape))) {
+                shape = store.shapeIds.indexOf(csv.getField(shapeIdColumn));
+                if (shape < 0) {
+                    shape = store.shapeIds.add(csv.getString(shapeIdColumn));
+                }
+            }
+
+            if (rows == rowShapes.length) {
+                rowShapes = Arrays.copyOf(rowShapes, rows * 2);
+                sequences = Arrays.copyOf(sequences, rows * 2);
+                latitudes = Arrays.copyOf(latitudes, rows * 2);
+                longitudes = Arrays.copyOf(longitudes, rows * 2);
+            }
+            rowShapes[rows] = shape;
+            sequences[rows] = csv.getInt(sequenceColumn);
+            latitudes[rows] = csv.getDouble(latColumn);
+            longitudes[rows] = csv.getDouble(lonColumn);
+            rows++;
+        }
+
+        csv.close();
+
+        store.sort(rowShapes, sequences, latitudes, longitudes, rows);
+        store.measure();
+        return store;
+    }
+
+    /**
+     * Copies the rows into the store's arrays grouped by shape, with the points of each shape in sequence order.
+     */
+    private void sort(int[] rowShapes, int[] sequences, double[] rowLatitudes, double[] rowLongitudes, int rows) {
+        int shapes = shapeIds.size();
+        offsets = new int[shapes + 1];
+        for (int row = 0; row < rows; row++) {
+            offsets[rowShapes[row] + 1]++;
+        }
+        for (int shape = 0; shape < shapes; shape++) {
+            offsets[shape + 1] += offsets[shape];
+        }
+
+        // sequence in the high bits and row in the low bits, so sorting the keys of a shape sorts its rows
+        long[] keys = new long[rows];
+        int[] next = Arrays.copyOf(offsets, shapes);
+        for (int row = 0; row < rows; row++) {
+            keys[next[rowShapes[row]]++] = ((long) sequences[row] << 32) | row;
+        }
+
+        latitudes = new double[rows];
+        longitudes = new double[rows];
+        for (int shape = 0; shape < shapes; shape++) {
+            Arrays.sort(keys, offsets[shape], offsets[shape + 1]);
+        }
+        for (int point = 0; point < rows; point++) {
+            int row = (int) keys[point];
+            latitudes[point] = rowLatitudes[row];
+            longitudes[point] = rowLongitudes[row];
+        }
+    }
+
+    /**
+     * Computes the distance along each shape up to every point and the bounding box of each shape.
+     */
+    private void measure() {
+        int shapes = shapeIds.size();
+        distances = new double[latitudes.length];
+        minLatitudes = new double[shapes];
+        minLongitudes = new double[shapes];
+        maxLatitudes = new double[shapes];
+        maxLongitudes = new double[shapes];
+
+        for (int shape = 0; shape < shapes; shape++) {
+            int start = offsets[shape];
+            minLatitudes[shape] = maxLatitudes[shape] = latitudes[start];
+            minLongitudes[shape] = maxLongitudes[shape] = longitudes[start];
+            for (int point = start + 1; point < offsets[shape + 1]; point++) {
+                distances[point] = distances[point - 1] + getDistance(
+                        latitudes[point - 1], longitudes[point - 1], latitudes[point], longitudes[point]);
+                minLatitudes[shape] = Math.min(minLatitudes[shape], latitudes[point]);
+                minLongitudes[shape] = Math.min(minLongitudes[shape], longitudes[point]);
+                maxLatitudes[shape] = Math.max(maxLatitudes[shape], latitudes[point]);
+                maxLongitudes[shape] = Math.max(maxLongitudes[shape], longitudes[point]);
+            }
+        }
+    }
+
+    /**
+     * @return the great circle distance between the two points in meters
+     */
+    static double getDistance(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    int size() {
+        return shapeIds.size();
+    }
+
+    /**
+     * @param shapeId of the shape
+     * @return the position of the shape, or -1 if shapes.txt does not contain it
+     */
+    int indexOf(CharSequence shapeId) {
+        return shapeIds.indexOf(shapeId);
+    }
+
+    String getShapeId(int shape) {
+        return shapeIds.get(shape);
+    }
+
+    int getPointCount(int shape) {
+        return offsets[shape + 1] - offsets[shape];
+    }
+
+    /**
+     * @param shape position of the shape
+     * @param point index of the point within the shape, 0 being its start
+     */
+    double getLatitude(int shape, int point) {
+        return latitudes[offsets[shape] + point];
+    }
+
+    double getLongitude(int shape, int point) {
+        return longitudes[offsets[shape] + point];
+    }
+
+    /**
+     * @return meters travelled along the shape from its start to the point
+     */
+    double getDistance(int shape, int point) {
+        return distances[offsets[shape] + point];
+    }
+
+    /**
+     * @return the length of the whole shape in meters
+     */
+    double getLength(int shape) {
+        return distances[offsets[shape + 1] - 1];
+    }
+
+    /**
+     * @param shape position of the shape
+     * @param distance meters along the shape
+     * @return index of the last point at or before the distance, the segment to it holds the location
+     */
+    int getPointBefore(int shape, double distance) {
+        int start = offsets[shape];
+        int end = offsets[shape + 1];
+        int found = Arrays.binarySearch(distances, start, end, distance);
+        int point = found >= 0 ? found : -found - 2;
+        return Math.max(start, Math.min(point, end - 1)) - start;
+    }
+
+    /**
+     * Finds the location at a distance along the shape, interpolating between the points around it.
+     * Distances before the start or past the end of the shape give its first or last point.
+     *
+     * @param shape position of the shape
+     * @param distance meters along the shape
+     * @param location array the latitude and longitude are written to
+     */
+    void getLocationAt(int shape, double distance, double[] location) {
+        int point = getPointBefore(shape, distance);
+        int i = offsets[shape] + point;
+        if (point == getPointCount(shape) - 1 || distance <= distances[i]) {
+            location[0] = latitudes[i];
+            location[1] = longitudes[i];
+            return;
+        }
+        double fraction = (distance - distances[i]) / (distances[i + 1] - distances[i]);
+        location[0] = latitudes[i] + (latitudes[i + 1] - latitudes[i]) * fraction;
+        location[1] = longitudes[i] + (longitudes[i + 1] - longitudes[i]) * fraction;
+    }
+
+    double getMinLatitude(int shape) {
+        return minLatitudes[shape];
+    }
+
+    double getMinLongitude(int shape) {
+        return minLongitudes[shape];
+    }
+
+    double getMaxLatitude(int shape) {
+        return maxLatitudes[shape];
+    }
+
+    double getMaxLongitude(int shape) {
+        return maxLongitudes[shape];
+    }
+}
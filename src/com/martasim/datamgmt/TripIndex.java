@@ -0,0 +1,141 @@
+package com.martasim.datamgmt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Everything the import needs from trips.txt, read in a single pass.
+ *
+ * Trips are stored column by column in file order and are addressed by their position, which is the number an
+ * IdDictionary gives their trip id. Route, service and shape ids repeat across thousands of trips, so only one
+ * copy of each distinct value is kept. Positions can be looked up straight from a CharSequence, so rows of
+ * stop_times.txt can be matched to their trip without creating a String for every row.
+ */
+class TripIndex {
+
+    private final IdDictionary tripIds = new IdDictionary();
+    private String[] routeIds = new String[1024];
+    private String[] serviceIds = new String[1024];
+    private String[] shapeIds = new String[1024];
+    private boolean[] outbound = new boolean[1024];
+
+    /**
+     * @param inputStream of trips.txt
+     * @return the index of every trip in the file
+     * @throws IOException
+     */
+    static TripIndex read(InputStream inputStream) throws IOException {
+        TripIndex index = new TripIndex();
+        Map<String, String> values = new HashMap<>();
+
+        CsvReader csv = new CsvReader(inputStream);
+        int routeIdColumn = csv.getRequiredColumn("route_id");
+        int serviceIdColumn = csv.getRequiredColumn("service_id");
+        int tripIdColumn = csv.getRequiredColumn("trip_id");
+        int directionIdColumn = csv.getColumn("direction_id");
+        int shapeIdColumn = csv.getColumn("shape_id");
+
+        // both columns are optional, trips without them have no shape and run outbound
+        while (csv.next()) {
+            index.add(
+                    csv.getString(tripIdColumn),
+                    values.computeIfAbsent(csv.getString(routeIdColumn), value -> value),
+                    values.computeIfAbsent(csv.getString(serviceIdColumn), value -> value),
+                    shapeIdColumn < 0 ? "" : values.computeIfAbsent(csv.getString(shapeIdColumn), value -> value),
+                    directionIdColumn < 0 || !csv.fieldEquals(directionIdColumn, "1") // 0 = outbound, 1 = inbound
+            );
+        }
+
+        csv.close();
+
+        return index;
+    }
+
+    /**
+     * A repeated trip id replaces the trip of the earlier row, like a map would.
+     */
+    private void add(String tripId, String routeId, String serviceId, String shapeId, boolean isOutbound) {
+        int trip = tripIds.add(tripId);
+        if (trip == routeIds.length) {
+            routeIds = Arrays.copyOf(routeIds, trip * 2);
+            serviceIds = Arrays.copyOf(serviceIds, trip * 2);
+            shapeIds = Arrays.copyOf(shapeIds, trip * 2);
+            outbound = Arrays.copyOf(outbound, trip * 2);
+        }
+        routeIds[trip] = routeId;
+        serviceIds[trip] = serviceId;
+        shapeIds[trip] = shapeId;
+        outbound[trip] = isOutbound;
+    }
+
+    int size() {
+        return tripIds.size();
+    }
+
+    /**
+     * @param tripId of the trip
+     * @return the position of the trip, or -1 if trips.txt does not contain it
+     */
+    int indexOf(CharSequence tripId) {
+        return tripIds.indexOf(tripId);
+    }
+
+    String getTripId(int trip) {
+        return tripIds.get(trip);
+    }
+
+    String getRouteId(int trip) {
+        return routeIds[trip];
+    }
+
+    String getServiceId(int trip) {
+        return serviceIds[trip];
+    }
+
+    String getShapeId(int trip) {
+        return shapeIds[trip];
+    }
+
+    boolean isOutbound(int trip) {
+        return outbound[trip];
+    }
+
+    /**
+     * @param dictionary of bus ids, which the trip ids are added to
+     * @return the number of each trip's id, by position
+     */
+    int[] addTripIds(IdDictionary dictionary) {
+        int[] ids = new int[size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = dictionary.add(tripIds.get(i));
+        }
+        return ids;
+    }
+
+    /**
+     * @param dictionary of route ids, which the route ids of the trips are added to
+     * @return the number of each trip's route id, by position
+     */
+    int[] addRouteIds(IdDictionary dictionary) {
+        int[] ids = new int[size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = dictionary.add(routeIds[i]);
+        }
+        return ids;
+    }
+
+    /**
+     * @param serviceDays bit mask of the days each service runs on
+     * @return bit mask of the days each trip runs on, by position
+     */
+    int[] getDays(Map<String, Integer> serviceDays) {
+        int[] days = new int[size()];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = serviceDays.getOrDefault(serviceIds[i], 0);
+        }
+        return days;
+    }
+}
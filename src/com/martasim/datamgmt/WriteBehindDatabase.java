@@ -0,0 +1,463 @@
+package com.martasim.datamgmt;
+
+import com.martasim.models.Bus;
+import com.martasim.models.Event;
+import com.martasim.models.Route;
+import com.martasim.models.Stop;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.stream.Stream;
+
+/**
+ * Wraps a Database and holds back updates of buses and stops until they are flushed.
+ *
+ * A simulation tick updates the same buses and stops many times. Only the latest state of each is kept,
+ * and flush writes all of them in one transaction, instead of one transaction per update. getBus and getStop
+ * return the held back state, and every other read or write that involves buses or stops flushes first,
+ * so the Database always behaves as if the updates had been written straight away.
+ *
+ * All methods are synchronized, since a timer may flush from another thread.
+ */
+public class WriteBehindDatabase implements Database {
+
+    /**
+     * How long updates may be held back, which is how many of them are lost if the program crashes.
+     */
+    public enum Durability {
+        /**
+         * Writes every update straight away, like the wrapped Database on its own.
+         */
+        WRITE_THROUGH,
+        /**
+         * Writes updates when flush or close is called, e.g. at the end of every simulation tick.
+         */
+        ON_FLUSH,
+        /**
+         * Writes updates when flush or close is called, and otherwise at least once per flush interval.
+         */
+        TIMED
+    }
+
+    private final Database database;
+    private final Durability durability;
+    private final Timer timer;
+
+    private final Map<String, Bus> dirtyBuses = new LinkedHashMap<>();
+    private final Map<String, Stop> dirtyStops = new LinkedHashMap<>();
+    private long coalescedWrites;
+
+    /**
+     * Holds back updates until flush or close is called.
+     *
+     * @param database to write the updates to
+     */
+    public WriteBehindDatabase(Database database) {
+        this(database, Durability.ON_FLUSH, 0);
+    }
+
+    /**
+     * @param database to write the updates to
+     * @param durability how long updates may be held back
+     * @param flushIntervalMillis time between flushes when durability is TIMED
+     */
+    public WriteBehindDatabase(Database database, Durability durability, long flushIntervalMillis) {
+        this.database = database;
+        this.durability = durability;
+        if (durability == Durability.TIMED) {
+            timer = new Timer("write-behind flush", true);
+            timer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    try {
+                        flush();
+                    } catch (SQLException sqlException) {
+                        sqlException.printStackTrace();
+                    }
+                }
+            }, flushIntervalMillis, flushIntervalMillis);
+        } else {
+            timer = null;
+        }
+    }
+
+    /**
+     * Writes the held back updates to the wrapped Database in one transaction.
+     * If writing fails, the updates are kept so the next flush tries again.
+     *
+     * @throws SQLException
+     */
+    public synchronized void flush() throws SQLException {
+        if (dirtyBuses.isEmpty() && dirtyStops.isEmpty()) {
+            return;
+        }
+
+        // writing marks the held back copies clean, even if the transaction is rolled back afterwards
+        Runnable restoreDirtyFields = saveDirtyFields();
+        try {
+            database.inTransaction(database -> {
+                for (Bus bus : dirtyBuses.values()) {
+                    database.updateBus(bus);
+                }
+                for (Stop stop : dirtyStops.values()) {
+                    database.updateStop(stop);
+                }
+            });
+        } catch (SQLException | RuntimeException exception) {
+            restoreDirtyFields.run();
+            throw exception;
+        }
+        dirtyBuses.clear();
+        dirtyStops.clear();
+    }
+
+    /**
+     * @return puts back the changed fields the held back updates have now
+     */
+    private Runnable saveDirtyFields() {
+        List<Runnable> restores = new ArrayList<>(dirtyBuses.size() + dirtyStops.size());
+        for (Bus bus : dirtyBuses.values()) {
+            int dirtyFields = bus.getDirtyFields();
+            restores.add(() -> bus.markDirty(dirtyFields));
+        }
+        for (Stop stop : dirtyStops.values()) {
+            int dirtyFields = stop.getDirtyFields();
+            restores.add(() -> stop.markDirty(dirtyFields));
+        }
+        return () -> restores.forEach(Runnable::run);
+    }
+
+    /**
+     * Runs the transaction on this Database, so its updates are held back as well, and writes anything it flushes
+     * in one transaction of the wrapped Database. If it throws, the updates it held back are dropped too.
+     */
+    @Override
+    public synchronized void inTransaction(Transaction transaction) throws SQLException {
+        Map<String, Bus> buses = new LinkedHashMap<>(dirtyBuses);
+        Map<String, Stop> stops = new LinkedHashMap<>(dirtyStops);
+        Runnable restoreDirtyFields = saveDirtyFields();
+        try {
+            database.inTransaction(database -> transaction.run(this));
+        } catch (SQLException | RuntimeException exception) {
+            dirtyBuses.clear();
+            dirtyBuses.putAll(buses);
+            dirtyStops.clear();
+            dirtyStops.putAll(stops);
+            restoreDirtyFields.run();
+            throw exception;
+        }
+    }
+
+    /**
+     * @return number of updates that are held back and not written yet
+     */
+    public synchronized int getPendingWrites() {
+        return dirtyBuses.size() + dirtyStops.size();
+    }
+
+    /**
+     * @return number of updateBus and updateStop calls that were saved by keeping only the latest state
+     */
+    public synchronized long getCoalescedWrites() {
+        return coalescedWrites;
+    }
+
+    /**
+     * @return copy of the bus with the same changed fields, so writing it only writes those
+     */
+    private static Bus copy(Bus bus) {
+        Bus copy = new Bus(bus.getId(), bus.getRoute(), bus.isOutbound(), bus.getCurrentStopIndex(), bus.getLatitude(),
+                bus.getLongitude(), bus.getPassengers(), bus.getPassengerCapacity(), bus.getFuel(),
+                bus.getFuelCapacity(), bus.getSpeed());
+        copy.markClean();
+        copy.markDirty(bus.getDirtyFields());
+        return copy;
+    }
+
+    /**
+     * @return copy of the stop with the same changed fields, so writing it only writes those
+     */
+    private static Stop copy(Stop stop) {
+        Stop copy = new Stop(stop.getId(), stop.getName(), stop.getRiders(), stop.getPreviousRiders(),
+                stop.getLatitude(), stop.getLongitude());
+        copy.markClean();
+        copy.markDirty(stop.getDirtyFields());
+        return copy;
+    }
+
+    @Override
+    public synchronized void clear() throws SQLException {
+        dirtyBuses.clear();
+        dirtyStops.clear();
+        database.clear();
+    }
+
+    /**
+     * Flushes the held back updates before closing the wrapped Database.
+     */
+    @Override
+    public synchronized void close() throws SQLException {
+        if (timer != null) {
+            timer.cancel();
+        }
+        flush();
+        database.close();
+    }
+
+    @Override
+    public synchronized void addBus(Bus bus) throws SQLException {
+        flush();
+        database.addBus(bus);
+    }
+
+    @Override
+    public synchronized void addEvent(Event event) throws SQLException {
+        database.addEvent(event);
+    }
+
+    @Override
+    public synchronized void addEvents(Collection<Event> events) throws SQLException {
+        database.addEvents(events);
+    }
+
+    @Override
+    public synchronized void addRoute(Route route) throws SQLException {
+        flush();
+        database.addRoute(route);
+    }
+
+    @Override
+    public synchronized void addStop(Stop stop) throws SQLException {
+        flush();
+        database.addStop(stop);
+    }
+
+    @Override
+    public synchronized void updateBus(Bus bus) throws SQLException {
+        if (durability == Durability.WRITE_THROUGH) {
+            database.updateBus(bus);
+            return;
+        }
+        Bus copy = copy(bus);
+        Bus pending = dirtyBuses.put(bus.getId(), copy);
+        if (pending != null) {
+            // the fields the replaced update changed are still not written
+            copy.markDirty(pending.getDirtyFields());
+            coalescedWrites++;
+        }
+        // like the wrapped Database, which marks it clean once written; the copy holds its changes until then
+        bus.markClean();
+    }
+
+    @Override
+    public synchronized void updateBuses(Collection<Bus> buses) throws SQLException {
+        if (durability == Durability.WRITE_THROUGH) {
+            database.updateBuses(buses);
+            return;
+        }
+        for (Bus bus : buses) {
+            updateBus(bus);
+        }
+    }
+
+    @Override
+    public synchronized void updateEvent(Event oldEvent, Event newEvent) throws SQLException {
+        database.updateEvent(oldEvent, newEvent);
+    }
+
+    @Override
+    public synchronized void updateRoute(Route route) throws SQLException {
+        flush();
+        database.updateRoute(route);
+    }
+
+    @Override
+    public synchronized void extendRoute(Route route, Stop stop) throws SQLException {
+        flush();
+        database.extendRoute(route, stop);
+    }
+
+    @Override
+    public synchronized void updateStop(Stop stop) throws SQLException {
+        if (durability == Durability.WRITE_THROUGH) {
+            database.updateStop(stop);
+            return;
+        }
+        Stop copy = copy(stop);
+        Stop pending = dirtyStops.put(stop.getId(), copy);
+        if (pending != null) {
+            // the fields the replaced update changed are still not written
+            copy.markDirty(pending.getDirtyFields());
+            coalescedWrites++;
+        }
+        // like the wrapped Database, which marks it clean once written; the copy holds its changes until then
+        stop.markClean();
+    }
+
+    @Override
+    public synchronized void updateStops(Collection<Stop> stops) throws SQLException {
+        if (durability == Durability.WRITE_THROUGH) {
+            database.updateStops(stops);
+            return;
+        }
+        for (Stop stop : stops) {
+            updateStop(stop);
+        }
+    }
+
+    @Override
+    public synchronized Bus getBus(String id) throws SQLException {
+        Bus bus = dirtyBuses.get(id);
+        return bus != null ? copy(bus) : database.getBus(id);
+    }
+
+    @Override
+    public synchronized Route getRoute(String id) throws SQLException {
+        flush();
+        return database.getRoute(id);
+    }
+
+    @Override
+    public synchronized Stop getStop(String id) throws SQLException {
+        Stop stop = dirtyStops.get(id);
+        return stop != null ? copy(stop) : database.getStop(id);
+    }
+
+    @Override
+    public synchronized Collection<Bus> getAllBuses() throws SQLException {
+        flush();
+        return database.getAllBuses();
+    }
+
+    @Override
+    public synchronized Collection<Bus> getAllBuses(String routeId) throws SQLException {
+        flush();
+        return database.getAllBuses(routeId);
+    }
+
+    @Override
+    public synchronized Stream<Bus> streamAllBuses() throws SQLException {
+        flush();
+        return database.streamAllBuses();
+    }
+
+    @Override
+    public synchronized Collection<Event> getAllEvents() throws SQLException {
+        return database.getAllEvents();
+    }
+
+    @Override
+    public synchronized Stream<Event> streamAllEvents() throws SQLException {
+        return database.streamAllEvents();
+    }
+
+    @Override
+    public synchronized Collection<Event> getAllEventsWithBusId(String busId) throws SQLException {
+        return database.getAllEventsWithBusId(busId);
+    }
+
+    @Override
+    public synchronized Collection<Event> getAllEventsWithStopId(String stopId) throws SQLException {
+        return database.getAllEventsWithStopId(stopId);
+    }
+
+    @Override
+    public synchronized Collection<Event> getAllEventsWithArrivalTime(int arrivalTime) throws SQLException {
+        return database.getAllEventsWithArrivalTime(arrivalTime);
+    }
+
+    @Override
+    public synchronized List<Event> getAllEventsWithArrivalTime(int from, int to) throws SQLException {
+        return database.getAllEventsWithArrivalTime(from, to);
+    }
+
+    @Override
+    public synchronized List<Event> getEventPage(int from, int to, String stopId, String routeId, Event after, int limit) throws SQLException {
+        // the route filter reads the route of each bus
+        if (routeId != null) {
+            flush();
+        }
+        return database.getEventPage(from, to, stopId, routeId, after, limit);
+    }
+
+    @Override
+    public synchronized Collection<Event> getAllEventsWithDepartureTime(int departureTime) throws SQLException {
+        return database.getAllEventsWithDepartureTime(departureTime);
+    }
+
+    @Override
+    public synchronized Collection<Route> getAllRoutes() throws SQLException {
+        flush();
+        return database.getAllRoutes();
+    }
+
+    @Override
+    public synchronized Collection<Stop> getAllStops() throws SQLException {
+        flush();
+        return database.getAllStops();
+    }
+
+    @Override
+    public synchronized Stream<Stop> streamAllStops() throws SQLException {
+        flush();
+        return database.streamAllStops();
+    }
+
+    @Override
+    public synchronized List<Stop> getAllStops(String routeId) throws SQLException {
+        flush();
+        return database.getAllStops(routeId);
+    }
+
+    @Override
+    public synchronized void removeBus(Bus bus) throws SQLException {
+        flush();
+        database.removeBus(bus);
+    }
+
+    @Override
+    public synchronized void removeEvent(Event event) throws SQLException {
+        database.removeEvent(event);
+    }
+
+    @Override
+    public synchronized void removeEvents(Collection<Event> events) throws SQLException {
+        database.removeEvents(events);
+    }
+
+    @Override
+    public synchronized void removeRoute(Route route) throws SQLException {
+        flush();
+        database.removeRoute(route);
+    }
+
+    @Override
+    public synchronized void removeFromRoute(Route route, Stop stop) throws SQLException {
+        flush();
+        database.removeFromRoute(route, stop);
+    }
+
+    @Override
+    public synchronized void removeFromRoute(String routeId, String stopId) throws SQLException {
+        flush();
+        database.removeFromRoute(routeId, stopId);
+    }
+
+    @Override
+    public synchronized void removeStop(Stop stop) throws SQLException {
+        flush();
+        database.removeStop(stop);
+    }
+
+    @Override
+    public synchronized void removeStop(String stopId) throws SQLException {
+        flush();
+        database.removeStop(stopId);
+    }
+}
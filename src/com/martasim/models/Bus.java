@@ -3,6 +3,22 @@ package com.martasim.models;
 import java.util.Objects;
 
 public class Bus {
+
+    /**
+     * Bits of getDirtyFields, one for every field that is stored in a Database.
+     */
+    public static final int ROUTE = 1;
+    public static final int OUTBOUND = 1 << 1;
+    public static final int CURRENT_STOP = 1 << 2;
+    public static final int LATITUDE = 1 << 3;
+    public static final int LONGITUDE = 1 << 4;
+    public static final int PASSENGERS = 1 << 5;
+    public static final int PASSENGER_CAPACITY = 1 << 6;
+    public static final int FUEL = 1 << 7;
+    public static final int FUEL_CAPACITY = 1 << 8;
+    public static final int SPEED = 1 << 9;
+    public static final int ALL_FIELDS = (1 << 10) - 1;
+
     final String id;
     Route route;
     boolean outbound;
@@ -14,6 +30,7 @@ public class Bus {
     double fuel;
     double fuelCapacity;
     double speed;
+    int dirtyFields;
 
     public Bus(String id, Route route, boolean outbound, double latitude, double longitude, int passengers,
                int passengerCapacity, double fuel, double fuelCapacity, double speed) {
@@ -33,6 +50,8 @@ public class Bus {
         this.fuel = fuel;
         this.fuelCapacity = fuelCapacity;
         this.speed = speed;
+        // not known to match what is stored yet
+        this.dirtyFields = ALL_FIELDS;
     }
 
     @Override
@@ -62,7 +81,10 @@ public class Bus {
     }
 
     public void setRoute(Route route) {
-        this.route = route;
+        if (route != this.route) {
+            this.route = route;
+            dirtyFields |= ROUTE;
+        }
     }
 
     public boolean isOutbound() {
@@ -74,11 +96,14 @@ public class Bus {
     }
 
     public void setOutbound(boolean outbound) {
-        this.outbound = outbound;
+        if (outbound != this.outbound) {
+            this.outbound = outbound;
+            dirtyFields |= OUTBOUND;
+        }
     }
 
     public void setOutbound(int outbound) {
-        this.outbound = outbound == 0;
+        setOutbound(outbound == 0);
     }
 
     public int getCurrentStopIndex() {
@@ -95,7 +120,10 @@ public class Bus {
                 throw new IndexOutOfBoundsException("can't set current stop to value greater than or equal to length of stops on bus's route");
             }
         }
-        this.currentStop = currentStop;
+        if (currentStop != this.currentStop) {
+            this.currentStop = currentStop;
+            dirtyFields |= CURRENT_STOP;
+        }
     }
 
     /**
@@ -113,7 +141,10 @@ public class Bus {
     }
 
     public void setLatitude(double latitude) {
-        this.latitude = latitude;
+        if (latitude != this.latitude) {
+            this.latitude = latitude;
+            dirtyFields |= LATITUDE;
+        }
     }
 
     public double getLongitude() {
@@ -121,7 +152,10 @@ public class Bus {
     }
 
     public void setLongitude(double longitude) {
-        this.longitude = longitude;
+        if (longitude != this.longitude) {
+            this.longitude = longitude;
+            dirtyFields |= LONGITUDE;
+        }
     }
 
     public int getPassengers() {
@@ -129,7 +163,10 @@ public class Bus {
     }
 
     public void setPassengers(int passengers) {
-        this.passengers = passengers;
+        if (passengers != this.passengers) {
+            this.passengers = passengers;
+            dirtyFields |= PASSENGERS;
+        }
     }
 
     public int getPassengerCapacity() {
@@ -137,7 +174,10 @@ public class Bus {
     }
 
     public void setPassengerCapacity(int passengerCapacity) {
-        this.passengerCapacity = passengerCapacity;
+        if (passengerCapacity != this.passengerCapacity) {
+            this.passengerCapacity = passengerCapacity;
+            dirtyFields |= PASSENGER_CAPACITY;
+        }
     }
 
     public double getFuel() {
@@ -145,7 +185,10 @@ public class Bus {
     }
 
     public void setFuel(double fuel) {
-        this.fuel = fuel;
+        if (fuel != this.fuel) {
+            this.fuel = fuel;
+            dirtyFields |= FUEL;
+        }
     }
 
     public double getFuelCapacity() {
@@ -153,7 +196,10 @@ public class Bus {
     }
 
     public void setFuelCapacity(double fuelCapacity) {
-        this.fuelCapacity = fuelCapacity;
+        if (fuelCapacity != this.fuelCapacity) {
+            this.fuelCapacity = fuelCapacity;
+            dirtyFields |= FUEL_CAPACITY;
+        }
     }
 
     public double getSpeed() {
@@ -161,7 +207,33 @@ public class Bus {
     }
 
     public void setSpeed(double speed) {
-        this.speed = speed;
+        if (speed != this.speed) {
+            this.speed = speed;
+            dirtyFields |= SPEED;
+        }
+    }
+
+    /**
+     * @return bits of the fields that changed since markClean was last called, every bit for a new bus
+     */
+    public int getDirtyFields() {
+        return dirtyFields;
+    }
+
+    /**
+     * Records that the bus matches what is stored, e.g. once it was written to or read from a Database,
+     * so the next update only writes the fields that change after this.
+     */
+    public void markClean() {
+        dirtyFields = 0;
+    }
+
+    /**
+     * Records that the fields with the given bits differ from what is stored, e.g. for a copy of a bus
+     * that should be written like the original.
+     */
+    public void markDirty(int fields) {
+        dirtyFields |= fields;
     }
 
     @Override
@@ -3,12 +3,24 @@ package com.martasim.models;
 import java.util.Objects;
 
 public class Stop {
+
+    /**
+     * Bits of getDirtyFields, one for every field that is stored in a Database.
+     */
+    public static final int NAME = 1;
+    public static final int RIDERS = 1 << 1;
+    public static final int PREVIOUS_RIDERS = 1 << 2;
+    public static final int LATITUDE = 1 << 3;
+    public static final int LONGITUDE = 1 << 4;
+    public static final int ALL_FIELDS = (1 << 5) - 1;
+
     final String id;
     String name;
     int riders;
     int previousRiders;
     double latitude;
     double longitude;
+    int dirtyFields;
 
     public Stop(String id, String name, int riders, double latitude, double longitude) {
         this(id, name, riders, -1, latitude, longitude);
@@ -21,6 +33,8 @@ public class Stop {
         this.previousRiders = previousRiders;
         this.latitude = latitude;
         this.longitude = longitude;
+        // not known to match what is stored yet
+        this.dirtyFields = ALL_FIELDS;
     }
 
     @Override
@@ -44,7 +58,10 @@ public class Stop {
     }
 
     public void setName(String name) {
-        this.name = name;
+        if (!Objects.equals(name, this.name)) {
+            this.name = name;
+            dirtyFields |= NAME;
+        }
     }
 
     public int getRiders() {
@@ -55,6 +72,7 @@ public class Stop {
         if (riders != this.riders) {
             this.previousRiders = this.riders;
             this.riders = riders;
+            dirtyFields |= RIDERS | PREVIOUS_RIDERS;
         }
     }
 
@@ -67,7 +85,10 @@ public class Stop {
     }
 
     public void setLatitude(double latitude) {
-        this.latitude = latitude;
+        if (latitude != this.latitude) {
+            this.latitude = latitude;
+            dirtyFields |= LATITUDE;
+        }
     }
 
     public double getLongitude() {
@@ -75,7 +96,33 @@ public class Stop {
     }
 
     public void setLongitude(double longitude) {
-        this.longitude = longitude;
+        if (longitude != this.longitude) {
+            this.longitude = longitude;
+            dirtyFields |= LONGITUDE;
+        }
+    }
+
+    /**
+     * @return bits of the fields that changed since markClean was last called, every bit for a new stop
+     */
+    public int getDirtyFields() {
+        return dirtyFields;
+    }
+
+    /**
+     * Records that the stop matches what is stored, e.g. once it was written to or read from a Database,
+     * so the next update only writes the fields that change after this.
+     */
+    public void markClean() {
+        dirtyFields = 0;
+    }
+
+    /**
+     * Records that the fields with the given bits differ from what is stored, e.g. for a copy of a stop
+     * that should be written like the original.
+     */
+    public void markDirty(int fields) {
+        dirtyFields |= fields;
     }
 
     @Override
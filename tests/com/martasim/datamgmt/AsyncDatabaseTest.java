@@ -0,0 +1,117 @@
+package com.martasim.datamgmt;
+
+import com.martasim.models.Bus;
+import com.martasim.models.Route;
+import com.martasim.models.Stop;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncDatabaseTest {
+
+    File file;
+    AsyncDatabase db;
+
+    @BeforeEach
+    void setup() throws IOException, SQLException {
+        file = File.createTempFile("async", ".db");
+        SQLiteDatabase database = new SQLiteDatabase(file);
+        database.clear();
+        database.close();
+        db = new AsyncDatabase(file, 2);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        db.close();
+        file.delete();
+    }
+
+    @Test
+    void write_in_order() throws Exception {
+        Route route = new Route("0", "0", "route 0");
+        Bus bus = new Bus("0", route, true, 0, 0, 0, 0, 10, 20, 40);
+        db.addRoute(route);
+        db.addBus(bus);
+        for (int passengers = 1; passengers <= 100; passengers++) {
+            bus.setPassengers(passengers);
+            db.updateBus(bus);
+        }
+        // the queued updates were copied, so changing the bus afterwards changes nothing
+        bus.setPassengers(0);
+
+        assertEquals(100, db.flush().thenCompose(done -> db.getBus("0")).get().getPassengers());
+    }
+
+    @Test
+    void write_only_changed_fields() throws Exception {
+        Route route = new Route("0", "0", "route 0");
+        db.addRoute(route);
+        db.addBus(new Bus("0", route, true, 0, 0, 0, 10, 10, 20, 40));
+        Bus bus = db.flush().thenCompose(done -> db.getBus("0")).get();
+
+        bus.setPassengers(5);
+        db.updateBus(bus);
+        // changed between the queued updates, which must not write their old speed over it
+        db.write(database -> {
+            Bus other = database.getBus("0");
+            other.setSpeed(99);
+            database.updateBus(other);
+        });
+        bus.setFuel(3);
+        db.updateBus(bus);
+
+        Bus stored = db.flush().thenCompose(done -> db.getBus("0")).get();
+        assertEquals(5, stored.getPassengers());
+        assertEquals(3, stored.getFuel());
+        assertEquals(99, stored.getSpeed());
+
+        long[] skippedWrites = new long[2];
+        db.write(database -> skippedWrites[0] = ((SQLiteDatabase) database).getSkippedWrites());
+        db.updateBus(bus);
+        db.write(database -> skippedWrites[1] = ((SQLiteDatabase) database).getSkippedWrites()).get();
+        assertEquals(skippedWrites[0] + 1, skippedWrites[1]);
+    }
+
+    @Test
+    void read_new_ids_after_clear() throws Exception {
+        db.addRoute(new Route("A", "A", "route A"));
+        assertEquals("A", db.flush().thenCompose(done -> db.getAllRoutes()).get().iterator().next().getId());
+
+        // a clear inside a write renumbers the ids just like clear
+        db.write(database -> {
+            database.clear();
+            database.addRoute(new Route("B", "B", "route B"));
+        });
+        assertEquals("B", db.flush().thenCompose(done -> db.getAllRoutes()).get().iterator().next().getId());
+    }
+
+    @Test
+    void failed_write_only_rolls_back_itself() throws Exception {
+        Stop A = new Stop("0", "Stop 0", 0, 0, 0);
+        Stop B = new Stop("1", "Stop 1", 0, 1, 1);
+        CompletableFuture<Void> added = db.addStop(A);
+        CompletableFuture<Void> failed = db.write(database -> {
+            database.addStop(B);
+            throw new SQLException("failed");
+        });
+        CompletableFuture<Void> renamed = db.write(database -> {
+            A.setName("Renamed 0");
+            database.updateStop(A);
+        });
+
+        renamed.get();
+        added.get();
+        assertThrows(ExecutionException.class, failed::get);
+        assertEquals(A, db.getStop("0").get());
+        assertNull(db.getStop("1").get());
+    }
+}
@@ -0,0 +1,79 @@
+package com.martasim.datamgmt;
+
+import com.martasim.models.Route;
+import com.martasim.models.Stop;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachingDatabaseTest {
+
+    SQLiteDatabase db;
+
+    @BeforeEach
+    void setup() throws SQLException {
+        db = new SQLiteDatabase();
+        db.clear();
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        db.close();
+    }
+
+    @Test
+    void evict_least_recently_used() throws SQLException {
+        for (int i = 0; i < 3; i++) {
+            db.addStop(new Stop(String.valueOf(i), "Stop " + i, 0, 0, 0));
+        }
+        CachingDatabase cache = new CachingDatabase(db, 2, 2);
+
+        cache.getStop("0");
+        cache.getStop("1");
+        cache.getStop("0");
+        cache.getStop("2");
+        assertEquals(1, cache.getStopHits());
+        assertEquals(3, cache.getStopMisses());
+
+        // 1 was read least recently, so it was dropped when 2 was added
+        cache.getStop("0");
+        cache.getStop("1");
+        assertEquals(2, cache.getStopHits());
+        assertEquals(4, cache.getStopMisses());
+    }
+
+    @Test
+    void invalidate_changed_stops_and_routes() throws SQLException {
+        Stop A = new Stop("0", "Stop 0", 0, 0, 0);
+        Stop B = new Stop("1", "Stop 1", 0, 1, 1);
+        Route route = new Route("0", "0", "route 0");
+        CachingDatabase cache = new CachingDatabase(db, 10, 10);
+        cache.addStop(A);
+        cache.addStop(B);
+        cache.addRoute(route);
+        cache.extendRoute(route, A);
+        assertEquals(Collections.singletonList(A), cache.getRoute("0").getStops());
+        assertEquals(A, cache.getStop("0"));
+
+        A.setName("Renamed 0");
+        cache.updateStop(A);
+        assertEquals(A, cache.getStop("0"));
+        assertEquals(Collections.singletonList(A), cache.getRoute("0").getStops());
+
+        cache.extendRoute(route, B);
+        assertEquals(Arrays.asList(A, B), cache.getAllStops("0"));
+        cache.removeFromRoute(route, A);
+        assertEquals(Collections.singletonList(B), cache.getRoute("0").getStops());
+        assertEquals(0, cache.getRouteHits());
+
+        cache.getRoute("0").getStops().clear();
+        assertEquals(Collections.singletonList(B), cache.getRoute("0").getStops());
+        assertEquals(2, cache.getRouteHits());
+    }
+}
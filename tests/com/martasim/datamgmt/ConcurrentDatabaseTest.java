@@ -0,0 +1,116 @@
+package com.martasim.datamgmt;
+
+import com.martasim.models.Stop;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentDatabaseTest {
+
+    File file;
+    ConcurrentDatabase db;
+
+    @BeforeEach
+    void setup() throws IOException, SQLException {
+        file = File.createTempFile("concurrent", ".db");
+        db = DatabaseFactory.createConcurrentDatabaseFromDb(file, 1);
+        db.clear();
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        db.close();
+        file.delete();
+    }
+
+    @Test
+    void read_while_writing() throws Exception {
+        Stop A = new Stop("0", "Stop 0", 0, 0, 0);
+        Stop B = new Stop("1", "Stop 1", 0, 1, 1);
+        db.addStop(A);
+
+        CountDownLatch written = new CountDownLatch(1);
+        CompletableFuture<Void> read = new CompletableFuture<>();
+        CompletableFuture<Void> transaction = CompletableFuture.runAsync(() -> {
+            try {
+                db.inTransaction(database -> {
+                    database.addStop(B);
+                    assertEquals(B, database.getStop("1"));
+                    written.countDown();
+                    read.join();
+                });
+            } catch (SQLException exception) {
+                throw new IllegalStateException(exception);
+            }
+        });
+
+        written.await();
+        // the transaction isn't committed yet, and the read doesn't wait for it
+        assertEquals(Collections.singletonList(A), db.getAllStops());
+        read.complete(null);
+        transaction.get();
+        assertEquals(new HashSet<>(Arrays.asList(A, B)), new HashSet<>(db.getAllStops()));
+    }
+
+    @Test
+    void return_connection_when_stream_is_closed() throws SQLException {
+        Stop A = new Stop("0", "Stop 0", 0, 0, 0);
+        db.addStop(A);
+        try (Stream<Stop> stops = db.streamAllStops()) {
+            assertEquals(Collections.singletonList(A), stops.collect(Collectors.toList()));
+        }
+        // the only read connection is free again
+        assertEquals(A, db.getStop("0"));
+    }
+
+    @Test
+    void return_connection_when_stream_is_read_to_the_end() throws SQLException {
+        Stop A = new Stop("0", "Stop 0", 0, 0, 0);
+        db.addStop(A);
+        // more streams than read connections, none of them closed, a connection that isn't returned blocks
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            for (int i = 0; i < 3; i++) {
+                assertEquals(1, db.streamAllStops().count());
+            }
+            assertEquals(Collections.singletonList(A), db.streamAllStops().collect(Collectors.toList()));
+            assertEquals(A, db.getStop("0"));
+        });
+    }
+
+    @Test
+    void read_new_ids_after_clear_in_transaction() throws SQLException {
+        db.addStop(new Stop("A", "Stop A", 0, 0, 0));
+        assertEquals("A", db.getAllStops().iterator().next().getId());
+
+        db.inTransaction(database -> {
+            database.clear();
+            database.addStop(new Stop("B", "Stop B", 0, 0, 0));
+        });
+        assertEquals("B", db.getAllStops().iterator().next().getId());
+    }
+
+    @Test
+    void keep_ids_when_clear_is_rolled_back() throws SQLException {
+        db.addStop(new Stop("A", "Stop A", 0, 0, 0));
+        assertThrows(SQLException.class, () -> db.inTransaction(database -> {
+            db.clear();
+            throw new SQLException("failed");
+        }));
+        assertEquals("A", db.getAllStops().iterator().next().getId());
+        assertEquals("A", db.getStop("A").getId());
+    }
+}
@@ -0,0 +1,97 @@
+package com.martasim.datamgmt;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CsvReaderTest {
+
+    @Test
+    void read_header_and_fields() throws IOException {
+        CsvReader csv = new CsvReader(new StringReader("\uFEFFstop_id,stop_name,stop_lat\r\n100004,BECKWITH ST,33.752636\r\n"));
+
+        assertEquals(0, csv.getColumn("stop_id"));
+        assertEquals(2, csv.getColumn("stop_lat"));
+        assertEquals(-1, csv.getColumn("stop_code"));
+
+        assertTrue(csv.next());
+        assertEquals("100004", csv.getString(0));
+        assertEquals(100004, csv.getInt(0));
+        assertEquals("BECKWITH ST", csv.getField(1).toString());
+        assertEquals(33.752636, csv.getDouble(2));
+        assertFalse(csv.next());
+    }
+
+    @Test
+    void read_quoted_fields() throws IOException {
+        CsvReader csv = new CsvReader(new StringReader(
+                "stop_id,stop_name\n" +
+                "213316,\"PEACHTREE ST SW @ MARTIN L KING,JR DR\"\n" +
+                "213317,\"THE \"\"OLD\"\" STOP\"\n" +
+                "213318,\"TWO\nLINES\"\n"
+        ));
+
+        assertTrue(csv.next());
+        assertEquals("PEACHTREE ST SW @ MARTIN L KING,JR DR", csv.getString(1));
+        assertTrue(csv.next());
+        assertEquals("THE \"OLD\" STOP", csv.getString(1));
+        assertTrue(csv.next());
+        assertEquals("TWO\nLINES", csv.getString(1));
+        assertFalse(csv.next());
+    }
+
+    @Test
+    void read_empty_and_missing_fields() throws IOException {
+        CsvReader csv = new CsvReader(new StringReader("a,b,c\n1,,\n\n2\n"));
+
+        assertTrue(csv.next());
+        assertTrue(csv.isEmpty(1));
+        assertTrue(csv.isEmpty(2));
+        assertTrue(csv.next());
+        assertEquals(2, csv.getInt(0));
+        assertEquals("", csv.getString(2));
+        assertFalse(csv.fieldEquals(2, "1"));
+        assertFalse(csv.next());
+    }
+
+    @Test
+    void read_missing_column_as_empty() throws IOException {
+        CsvReader csv = new CsvReader(new StringReader("trip_id,route_id\n1,2\n"));
+        int column = csv.getColumn("shape_id");
+
+        assertTrue(csv.next());
+        assertEquals(-1, column);
+        assertEquals("", csv.getString(column));
+        assertEquals("", csv.getField(column).toString());
+        assertTrue(csv.isEmpty(column));
+        assertTrue(csv.fieldEquals(column, ""));
+        assertFalse(csv.fieldEquals(column, "1"));
+        assertThrows(NumberFormatException.class, () -> csv.getInt(column));
+    }
+
+    @Test
+    void parse_numbers() throws IOException {
+        String[] values = {"-84.417759", "0.000123", "+12.5", "1e-3", "33.7520000000000000001", "7", "-0"};
+        StringBuilder sb = new StringBuilder("value\n");
+        for (String value : values) {
+            sb.append(value).append('\n');
+        }
+        CsvReader csv = new CsvReader(new StringReader(sb.toString()));
+
+        for (String value : values) {
+            assertTrue(csv.next());
+            assertEquals(Double.parseDouble(value), csv.getDouble(0));
+        }
+
+        CsvReader ints = new CsvReader(new StringReader("value\n 42 \n-7\nabc\n"));
+        assertTrue(ints.next());
+        assertEquals(42, ints.getInt(0));
+        assertTrue(ints.next());
+        assertEquals(-7, ints.getInt(0));
+        assertTrue(ints.next());
+        assertThrows(NumberFormatException.class, () -> ints.getInt(0));
+    }
+}
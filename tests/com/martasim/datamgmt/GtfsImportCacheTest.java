@@ -0,0 +1,121 @@
+package com.martasim.datamgmt;
+
+import com.martasim.models.Bus;
+import com.martasim.models.DayOfTheWeek;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GtfsImportCacheTest {
+
+    File directory;
+    File zip;
+    File file;
+    GtfsImportCache cache;
+
+    @BeforeEach
+    void setup() throws IOException {
+        directory = Files.createTempDirectory("gtfs-cache").toFile();
+        zip = TestFeed.write(File.createTempFile("feed", ".zip"), TestFeed.files());
+        file = File.createTempFile("simulation", ".db");
+        cache = new GtfsImportCache(directory, Long.MAX_VALUE);
+    }
+
+    @AfterEach
+    void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File cached : files) {
+                cached.delete();
+            }
+        }
+        directory.delete();
+        zip.delete();
+        file.delete();
+    }
+
+    private Database open(DayOfTheWeek dayOfTheWeek) throws IOException, SQLException {
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            return cache.open(zipFile, dayOfTheWeek, 1, file);
+        }
+    }
+
+    private File getFile(DayOfTheWeek dayOfTheWeek) throws IOException {
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            return cache.getFile(zipFile, dayOfTheWeek);
+        }
+    }
+
+    @Test
+    void import_on_miss() throws IOException, SQLException {
+        assertFalse(getFile(DayOfTheWeek.MONDAY).exists());
+
+        Database database = open(DayOfTheWeek.MONDAY);
+        assertEquals(1, database.getAllBuses().size());
+        database.close();
+        assertTrue(getFile(DayOfTheWeek.MONDAY).isFile());
+
+        // another day, or another feed, is a different entry
+        assertFalse(getFile(DayOfTheWeek.SATURDAY).exists());
+        Map<String, String> files = TestFeed.files();
+        files.put("routes.txt", files.get("routes.txt").replace("Route One", "Renamed One"));
+        TestFeed.write(zip, files);
+        assertFalse(getFile(DayOfTheWeek.MONDAY).exists());
+    }
+
+    @Test
+    void copy_cached_import_on_hit() throws IOException, SQLException {
+        open(DayOfTheWeek.MONDAY).close();
+
+        // remove a bus from the cached database itself, which a hit copies without importing again
+        Database cached = DatabaseFactory.createDatabaseFromDb(getFile(DayOfTheWeek.MONDAY));
+        cached.removeBus(cached.getBus("W1"));
+        cached.close();
+
+        Database database = open(DayOfTheWeek.MONDAY);
+        assertTrue(database.getAllBuses().isEmpty());
+        database.close();
+    }
+
+    @Test
+    void keep_cached_import_unchanged_by_writes() throws IOException, SQLException {
+        Database database = open(DayOfTheWeek.MONDAY);
+        Bus bus = database.getBus("W1");
+        bus.setPassengers(42);
+        database.updateBus(bus);
+        database.close();
+
+        database = open(DayOfTheWeek.MONDAY);
+        assertEquals(0, database.getBus("W1").getPassengers());
+        database.close();
+    }
+
+    @Test
+    void evict_least_recently_used() throws IOException {
+        long now = System.currentTimeMillis();
+        File[] files = new File[4];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File(directory, i + ".db");
+            Files.write(files[i].toPath(), new byte[100]);
+            files[i].setLastModified(now - (files.length - i) * 10000L);
+        }
+        // 1 was used after 2
+        files[1].setLastModified(now);
+
+        new GtfsImportCache(directory, 250).evict(files[3]);
+
+        assertTrue(files[3].exists());
+        assertTrue(files[1].exists());
+        assertFalse(files[2].exists());
+        assertFalse(files[0].exists());
+    }
+}
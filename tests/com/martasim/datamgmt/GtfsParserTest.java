@@ -0,0 +1,299 @@
+package com.martasim.datamgmt;
+
+import com.martasim.models.Bus;
+import com.martasim.models.DayOfTheWeek;
+import com.martasim.models.Event;
+import com.martasim.models.Route;
+import com.martasim.models.Stop;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GtfsParserTest {
+
+    File zip;
+    File file;
+
+    @BeforeEach
+    void setup() throws IOException {
+        zip = TestFeed.write(File.createTempFile("feed", ".zip"), TestFeed.files());
+        file = File.createTempFile("gtfs", ".db");
+    }
+
+    @AfterEach
+    void tearDown() {
+        zip.delete();
+        file.delete();
+    }
+
+    static Set<String> busIds(Database database) throws SQLException {
+        return database.getAllBuses().stream().map(Bus::getId).collect(Collectors.toSet());
+    }
+
+    static Set<String> eventBusIds(Database database) throws SQLException {
+        return database.getAllEvents().stream().map(Event::getBusId).collect(Collectors.toSet());
+    }
+
+    static Set<String> routeIds(Database database) throws SQLException {
+        return database.getAllRoutes().stream().map(Route::getId).collect(Collectors.toSet());
+    }
+
+    /**
+     * @return every row of the database as text, in a fixed order
+     */
+    static List<String> contents(Database database) throws SQLException {
+        List<String> rows = new ArrayList<>();
+        for (Route route : database.getAllRoutes()) {
+            StringBuilder row = new StringBuilder(route.toString());
+            for (Stop stop : route.getStops()) {
+                row.append(' ').append(stop.getId());
+            }
+            rows.add(row.toString());
+        }
+        database.getAllStops().forEach(stop -> rows.add(stop.toString()));
+        database.getAllBuses().forEach(bus -> rows.add(bus.toString()));
+        database.getAllEvents().forEach(event -> rows.add(event.toString()));
+        Collections.sort(rows);
+        return rows;
+    }
+
+    private Database parse(DayOfTheWeek dayOfTheWeek) throws IOException, SQLException {
+        SQLiteDatabase database = new SQLiteDatabase(file);
+        database.clear();
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            new GtfsParser(database, zipFile).parse(dayOfTheWeek);
+        }
+        return database;
+    }
+
+    @Test
+    void import_only_trips_of_the_day() throws IOException, SQLException {
+        Database monday = parse(DayOfTheWeek.MONDAY);
+        assertEquals(Collections.singleton("W1"), busIds(monday));
+        assertEquals(Collections.singleton("W1"), eventBusIds(monday));
+        assertEquals(2, monday.getAllEvents().size());
+        assertEquals(Collections.singleton("1"), routeIds(monday));
+        assertEquals(3, monday.getAllStops().size());
+        monday.close();
+
+        Database saturday = parse(DayOfTheWeek.SATURDAY);
+        assertEquals(new HashSet<>(Arrays.asList("S1", "S2")), busIds(saturday));
+        assertEquals(new HashSet<>(Arrays.asList("S1", "S2")), eventBusIds(saturday));
+        assertEquals(new HashSet<>(Arrays.asList("1", "2")), routeIds(saturday));
+        saturday.close();
+
+        Database sunday = parse(DayOfTheWeek.SUNDAY);
+        assertTrue(sunday.getAllBuses().isEmpty());
+        assertTrue(sunday.getAllEvents().isEmpty());
+        assertTrue(sunday.getAllRoutes().isEmpty());
+        sunday.close();
+    }
+
+    @Test
+    void import_several_days_in_one_pass() throws IOException, SQLException {
+        Map<DayOfTheWeek, File> files = new EnumMap<>(DayOfTheWeek.class);
+        for (DayOfTheWeek dayOfTheWeek : Arrays.asList(DayOfTheWeek.MONDAY, DayOfTheWeek.SATURDAY, DayOfTheWeek.SUNDAY)) {
+            files.put(dayOfTheWeek, File.createTempFile(dayOfTheWeek.name(), ".db"));
+        }
+
+        Map<DayOfTheWeek, Database> databases;
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            databases = DatabaseFactory.createDatabasesFromGtfs(zipFile, files, 2);
+        }
+        try {
+            Database monday = databases.get(DayOfTheWeek.MONDAY);
+            assertEquals(Collections.singleton("W1"), busIds(monday));
+            assertEquals(Collections.singleton("W1"), eventBusIds(monday));
+            assertEquals(Collections.singleton("1"), routeIds(monday));
+
+            Database saturday = databases.get(DayOfTheWeek.SATURDAY);
+            assertEquals(new HashSet<>(Arrays.asList("S1", "S2")), busIds(saturday));
+            assertEquals(new HashSet<>(Arrays.asList("S1", "S2")), eventBusIds(saturday));
+            assertEquals(new HashSet<>(Arrays.asList("1", "2")), routeIds(saturday));
+            assertEquals(4, saturday.getAllEvents().size());
+
+            Database sunday = databases.get(DayOfTheWeek.SUNDAY);
+            assertTrue(sunday.getAllBuses().isEmpty());
+            assertTrue(sunday.getAllEvents().isEmpty());
+            // every day has all stops
+            for (Database database : databases.values()) {
+                assertEquals(3, database.getAllStops().size());
+            }
+        } finally {
+            for (Database database : databases.values()) {
+                database.close();
+            }
+            files.values().forEach(File::delete);
+        }
+    }
+
+    @Test
+    void import_feed_without_optional_columns() throws IOException, SQLException {
+        Map<String, String> files = TestFeed.files();
+        files.put("routes.txt",
+                "route_id,route_long_name\n" +
+                "1,Route One\n" +
+                "2,Route Two\n");
+        files.put("trips.txt",
+                "route_id,service_id,trip_id\n" +
+                "1,WEEKDAY,W1\n");
+        TestFeed.write(zip, files);
+
+        Database monday = parse(DayOfTheWeek.MONDAY);
+        assertEquals(Collections.singleton("W1"), busIds(monday));
+        Route route = monday.getRoute("1");
+        assertEquals("", route.getShortName());
+        assertEquals("Route One", route.getName());
+        // without a shape the bus starts at 0, 0, and without a direction it runs outbound
+        Bus bus = monday.getBus("W1");
+        assertEquals(0, bus.getLatitude());
+        assertTrue(bus.isOutbound());
+        monday.close();
+    }
+
+    @Test
+    void parse_times() throws IOException {
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            GtfsParser parser = new GtfsParser(null, zipFile);
+            assertEquals(7 * 3600 + 11 * 60 + 5, parser.getLogicalTimeFromTimeString("07:11:05"));
+            assertEquals(25 * 3600 + 30, parser.getLogicalTimeFromTimeString(" 25:00:30"));
+            for (String time : Arrays.asList("", " ", "07:11", "07::05", "07:11:05:00", "7h11")) {
+                assertThrows(NumberFormatException.class, () -> parser.getLogicalTimeFromTimeString(time), time);
+            }
+        }
+    }
+
+    @Test
+    void skip_stop_times_without_times() throws IOException, SQLException {
+        Map<String, String> files = TestFeed.files();
+        files.put("stop_times.txt",
+                "trip_id,arrival_time,departure_time,stop_id,stop_sequence\n" +
+                "W1,07:00:00,07:00:00,A,1\n" +
+                "W1,,,B,2\n" +
+                "W1,07:20:00,07:20:00,C,3\n");
+        TestFeed.write(zip, files);
+
+        Database monday = parse(DayOfTheWeek.MONDAY);
+        Collection<Event> events = monday.getAllEvents();
+        assertEquals(Arrays.asList("A", "C"), events.stream().map(Event::getStopId).sorted().collect(Collectors.toList()));
+        for (Event event : events) {
+            assertTrue(event.getArrivalTime() >= 7 * 3600);
+        }
+        monday.close();
+    }
+
+    @Test
+    void leave_database_unchanged_when_import_fails() throws IOException, SQLException {
+        Map<String, String> files = TestFeed.files();
+        files.put("stop_times.txt",
+                "trip_id,arrival_time,departure_time,stop_id,stop_sequence\n" +
+                "W1,07:00:00,07:00:00,A,1\n" +
+                "W1,seven,07:10:00,B,2\n");
+        TestFeed.write(zip, files);
+
+        SQLiteDatabase database = new SQLiteDatabase(file);
+        database.clear();
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            assertFalse(new GtfsParser(null, zipFile).parse(Collections.singletonMap(DayOfTheWeek.MONDAY, database)));
+        }
+        // stops and routes parsed before the bad stop time are rolled back as well
+        assertTrue(database.getAllStops().isEmpty());
+        assertTrue(database.getAllRoutes().isEmpty());
+        assertTrue(database.getAllEvents().isEmpty());
+        database.close();
+    }
+
+    @Test
+    void import_and_update_feed_without_shapes() throws IOException, SQLException {
+        Map<String, String> files = TestFeed.files();
+        files.remove("shapes.txt");
+        files.put("trips.txt",
+                "route_id,service_id,trip_id\n" +
+                "1,SATURDAY,S1\n" +
+                "2,SATURDAY,S2\n");
+        TestFeed.write(zip, files);
+
+        Database saturday = parse(DayOfTheWeek.SATURDAY);
+        assertEquals(new HashSet<>(Arrays.asList("S1", "S2")), busIds(saturday));
+        assertEquals(0, saturday.getBus("S1").getLatitude());
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            assertEquals(0, new GtfsParser(saturday, zipFile).update(DayOfTheWeek.SATURDAY));
+        }
+
+        files.put("stops.txt", files.get("stops.txt").replace("Stop C", "Renamed C"));
+        TestFeed.write(zip, files);
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            assertTrue(new GtfsParser(saturday, zipFile).update(DayOfTheWeek.SATURDAY) > 0);
+        }
+        assertEquals("Renamed C", saturday.getStop("C").getName());
+        saturday.close();
+    }
+
+    @Test
+    void update_from_unchanged_feed() throws IOException, SQLException {
+        Database database = parse(DayOfTheWeek.MONDAY);
+        List<String> imported = contents(database);
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            assertEquals(0, new GtfsParser(database, zipFile).update(DayOfTheWeek.MONDAY));
+        }
+        database.close();
+
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            database = DatabaseFactory.updateDatabaseFromGtfs(file, zipFile, DayOfTheWeek.MONDAY);
+        }
+        assertEquals(imported, contents(database));
+        database.close();
+    }
+
+    @Test
+    void update_from_changed_feed() throws IOException, SQLException {
+        parse(DayOfTheWeek.MONDAY).close();
+
+        Map<String, String> files = TestFeed.files();
+        files.put("stops.txt",
+                "stop_id,stop_name,stop_lat,stop_lon\n" +
+                "A,Stop A,33.75,-84.41\n" +
+                "B,Renamed B,33.76,-84.40\n" +
+                "D,Stop D,33.78,-84.38\n");
+        // W1 stops at B twice at the same time, both events are kept
+        files.put("stop_times.txt",
+                "trip_id,arrival_time,departure_time,stop_id,stop_sequence\n" +
+                "W1,07:00:00,07:00:00,A,1\n" +
+                "W1,07:10:00,07:11:00,B,2\n" +
+                "W1,07:10:00,07:11:00,B,3\n" +
+                "W1,07:20:00,07:20:00,D,4\n");
+        TestFeed.write(zip, files);
+
+        Database updated;
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            updated = DatabaseFactory.updateDatabaseFromGtfs(file, zipFile, DayOfTheWeek.MONDAY);
+        }
+        List<String> contents = contents(updated);
+        assertEquals(4, updated.getAllEvents().size());
+        assertEquals("Renamed B", updated.getStop("B").getName());
+        assertNull(updated.getStop("C"));
+        updated.close();
+
+        // the same as importing the new feed from scratch
+        Database imported = parse(DayOfTheWeek.MONDAY);
+        assertEquals(contents(imported), contents);
+        imported.close();
+    }
+}
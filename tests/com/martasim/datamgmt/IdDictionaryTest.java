@@ -0,0 +1,37 @@
+package com.martasim.datamgmt;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdDictionaryTest {
+
+    @Test
+    void number_ids_in_order() {
+        IdDictionary ids = new IdDictionary();
+        assertEquals(0, ids.add("100004"));
+        assertEquals(1, ids.add("213316"));
+        assertEquals(0, ids.add("100004"));
+
+        assertEquals(2, ids.size());
+        assertEquals(1, ids.indexOf(new StringBuilder("213316")));
+        assertEquals(-1, ids.indexOf("900788"));
+        assertEquals("213316", ids.get(1));
+        assertNull(ids.get(2));
+    }
+
+    @Test
+    void keep_numbers_when_growing() {
+        IdDictionary ids = new IdDictionary();
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i, ids.add("stop " + i));
+        }
+
+        IdDictionary copy = new IdDictionary(ids);
+        assertEquals(5000, copy.add("stop 5000"));
+        assertEquals(-1, ids.indexOf("stop 5000"));
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i, copy.indexOf("stop " + i));
+        }
+    }
+}
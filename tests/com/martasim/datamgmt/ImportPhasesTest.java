@@ -0,0 +1,60 @@
+package com.martasim.datamgmt;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImportPhasesTest {
+
+    @Test
+    void run_phases_after_their_dependencies() throws IOException {
+        List<String> finished = Collections.synchronizedList(new ArrayList<>());
+        ImportPhases phases = new ImportPhases();
+        phases.add("calendar", () -> finished.add("calendar"));
+        phases.add("trips", () -> finished.add("trips"));
+        phases.add("tripDays", () -> finished.add("tripDays"), "calendar", "trips");
+        phases.add("routes", () -> finished.add("routes"), "tripDays");
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            phases.run(executor);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(4, finished.size());
+        assertTrue(finished.indexOf("tripDays") > finished.indexOf("calendar"));
+        assertTrue(finished.indexOf("tripDays") > finished.indexOf("trips"));
+        assertEquals("routes", finished.get(3));
+    }
+
+    @Test
+    void pass_failure_to_caller() {
+        List<String> finished = Collections.synchronizedList(new ArrayList<>());
+        ImportPhases phases = new ImportPhases();
+        phases.add("calendar", () -> {
+            throw new IOException("calendar.txt is missing");
+        });
+        phases.add("trips", () -> finished.add("trips"));
+        phases.add("tripDays", () -> finished.add("tripDays"), "calendar", "trips");
+
+        IOException ioException = assertThrows(IOException.class, () -> phases.run(Runnable::run));
+        assertEquals("calendar.txt is missing", ioException.getMessage());
+        // a phase that depends on the failed one is not run
+        assertEquals(Arrays.asList("trips"), finished);
+    }
+
+    @Test
+    void reject_unknown_dependency() {
+        ImportPhases phases = new ImportPhases();
+        assertThrows(IllegalArgumentException.class, () -> phases.add("tripDays", () -> {}, "calendar"));
+    }
+}
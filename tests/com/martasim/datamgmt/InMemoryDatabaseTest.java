@@ -0,0 +1,172 @@
+package com.martasim.datamgmt;
+
+import com.martasim.models.Bus;
+import com.martasim.models.DayOfTheWeek;
+import com.martasim.models.Event;
+import com.martasim.models.Route;
+import com.martasim.models.Stop;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryDatabaseTest {
+
+    InMemoryDatabase db;
+
+    @BeforeEach
+    void setup() {
+        db = new InMemoryDatabase();
+    }
+
+    @Test
+    void update_bus() {
+        Route route = new Route("1", "1", "Route 1");
+        db.addRoute(route);
+        Bus bus = new Bus("0", route, true, 1, 1, 2, 10, 10, 20, 40);
+        db.addBus(bus);
+
+        bus.setFuel(5);
+        assertNotEquals(bus, db.getBus("0"));
+
+        db.updateBus(bus);
+        assertEquals(bus, db.getBus("0"));
+        assertEquals(Collections.singletonList(bus), db.getAllBuses("1"));
+        assertNull(db.getBus("1"));
+    }
+
+    @Test
+    void remove_stop_from_routes() {
+        Stop A = new Stop("0", "Stop 0", 0, 0, 0);
+        Stop B = new Stop("1", "Stop 1", 0, 1, 1);
+        Route route = new Route("0", "0", "route 0");
+        db.addStop(A);
+        db.addStop(B);
+        db.addRoute(route);
+        db.extendRoute(route, A);
+        db.extendRoute(route, B);
+        assertEquals(Arrays.asList(A, B), db.getRoute("0").getStops());
+
+        db.removeStop(A);
+        assertEquals(Collections.singletonList(B), db.getAllStops("0"));
+        assertEquals(Collections.singletonList(B), db.getAllStops());
+    }
+
+    @Test
+    void read_events() {
+        Route route = new Route("0", "0", "route 0");
+        db.addRoute(route);
+        db.addBus(new Bus("0", route, true, 0, 0, 0, 0, 0, 0, 0));
+        Event A = new Event("0", "0", 10, 10);
+        Event B = new Event("1", "0", 20, 25);
+        Event C = new Event("0", "1", 20, 20);
+        Event D = new Event("1", "1", 30, 30);
+        for (Event event : Arrays.asList(D, C, B, A)) {
+            db.addEvent(event);
+        }
+
+        assertEquals(new HashSet<>(Arrays.asList(A, B)), new HashSet<>(db.getAllEventsWithStopId("0")));
+        assertEquals(Collections.singletonList(B), db.getAllEventsWithDepartureTime(25));
+        assertEquals(Arrays.asList(A, C, B), db.getAllEventsWithArrivalTime(0, 30));
+        assertEquals(Arrays.asList(B, D), db.getEventPage(0, 100, null, null, C, 10));
+        assertEquals(Arrays.asList(A, C), db.getEventPage(0, 100, null, "0", null, 10));
+
+        Event later = new Event("0", "0", 50, 50);
+        db.updateEvent(A, later);
+        assertEquals(Arrays.asList(C, later), db.getAllEventsWithBusId("0"));
+        assertEquals(Arrays.asList(D, later), db.getEventPage(20, 100, null, null, B, 10));
+        db.removeEvent(later);
+        assertEquals(3, db.getAllEvents().size());
+    }
+
+    @Test
+    void load_and_flush_file() throws SQLException {
+        File file = new File("InMemoryTest.db");
+        Stop stop = new Stop("0", "Stop 0", 0, 1.5, 2.5);
+        Route route = new Route("0", "0", "route 0");
+        Bus bus = new Bus("0", route, true, 0, 0, 0, 0, 0, 0, 0);
+        Database sqLiteDatabase = DatabaseFactory.createEmptyDatabase(file);
+        sqLiteDatabase.addStop(stop);
+        sqLiteDatabase.addRoute(route);
+        sqLiteDatabase.extendRoute(route, stop);
+        sqLiteDatabase.addBus(bus);
+        sqLiteDatabase.addEvent(new Event("0", "0", 10, 10));
+        sqLiteDatabase.close();
+
+        InMemoryDatabase inMemoryDatabase = DatabaseFactory.createInMemoryDatabaseFromDb(file, true);
+        assertEquals(bus, inMemoryDatabase.getBus("0"));
+        stop.setRiders(7);
+        inMemoryDatabase.updateStop(stop);
+        inMemoryDatabase.addEvent(new Event("0", "0", 20, 20));
+        inMemoryDatabase.close();
+
+        sqLiteDatabase = DatabaseFactory.createDatabaseFromDb(file);
+        assertEquals(stop, sqLiteDatabase.getStop("0"));
+        assertEquals(Collections.singletonList(stop), sqLiteDatabase.getRoute("0").getStops());
+        assertEquals(2, sqLiteDatabase.getAllEventsWithBusId("0").size());
+        sqLiteDatabase.close();
+        file.delete();
+    }
+
+    private static List<String> routeToStopRows(File file) throws SQLException {
+        List<String> rows = new ArrayList<>();
+        SQLiteDatabase database = new SQLiteDatabase(file);
+        try (Statement statement = database.connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT * FROM routeToStop ORDER BY routeId, stopIndex")) {
+            while (resultSet.next()) {
+                rows.add(resultSet.getInt("routeId") + " " + resultSet.getInt("stopId") + " " + resultSet.getInt("stopIndex"));
+            }
+        }
+        database.close();
+        return rows;
+    }
+
+    @Test
+    void flush_like_an_import() throws IOException, SQLException {
+        File zip = TestFeed.write(File.createTempFile("feed", ".zip"), TestFeed.files());
+        File file = File.createTempFile("in-memory", ".db");
+        // route 2 runs inbound on Saturdays, its stops are numbered from 1
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            DatabaseFactory.createDatabasesFromGtfs(zipFile, Collections.singletonMap(DayOfTheWeek.SATURDAY, file), 1)
+                    .get(DayOfTheWeek.SATURDAY).close();
+        }
+        List<String> imported = routeToStopRows(file);
+
+        DatabaseFactory.createInMemoryDatabaseFromDb(file, false).flush();
+
+        assertEquals(imported, routeToStopRows(file));
+        zip.delete();
+        file.delete();
+    }
+
+    @Test
+    void keep_file_when_flush_fails() throws SQLException, IOException {
+        File file = File.createTempFile("in-memory", ".db");
+        Stop stop = new Stop("0", "Stop 0", 0, 1.5, 2.5);
+        SQLiteDatabase sqLiteDatabase = new SQLiteDatabase(file);
+        sqLiteDatabase.clear();
+        sqLiteDatabase.addStop(stop);
+
+        InMemoryDatabase inMemoryDatabase = DatabaseFactory.createInMemoryDatabaseFromDb(file, false);
+        inMemoryDatabase.addStop(new Stop("1", "Stop 1", 0, 0, 0));
+        // the event table is emptied last, so the flush fails after emptying the others
+        sqLiteDatabase.executeUpdate("DROP TABLE event");
+        assertThrows(SQLException.class, inMemoryDatabase::flush);
+
+        assertEquals(Collections.singletonList(stop), new ArrayList<>(sqLiteDatabase.getAllStops()));
+        sqLiteDatabase.close();
+        file.delete();
+    }
+}
@@ -0,0 +1,125 @@
+package com.martasim.datamgmt;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngestPipelineTest {
+
+    File file;
+    SQLiteDatabase db;
+
+    @BeforeEach
+    void setup() throws IOException, SQLException {
+        file = File.createTempFile("ingest", ".db");
+        db = new SQLiteDatabase(file);
+        db.clear();
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        db.close();
+        file.delete();
+    }
+
+    private int count(String sql) throws SQLException {
+        try (Statement statement = db.connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            return resultSet.getInt(1);
+        }
+    }
+
+    @Test
+    void write_every_row_and_restore_indexes() throws IOException, SQLException {
+        int events = IngestPipeline.ROWS_PER_BATCH * 5 / 2;
+        // a queue of one batch makes the parser wait for the writer
+        IngestPipeline pipeline = new IngestPipeline(db, 1);
+        RowBatch batch = pipeline.newBatch(RowBatch.Table.EVENT);
+        for (int i = 0; i < events; i++) {
+            batch.add(i % 100).add(i % 7).add(i).add(i + 10).endRow();
+            if (batch.isFull()) {
+                pipeline.put(batch);
+                batch = pipeline.newBatch(RowBatch.Table.EVENT);
+            }
+        }
+        pipeline.put(batch);
+        pipeline.finish(RowBatch.Table.EVENT);
+        RowBatch stops = pipeline.newBatch(RowBatch.Table.STOP);
+        stops.add(0).add("Stop 0").add(0).add(0).add(1.5).add(2.5).endRow();
+        pipeline.put(stops);
+        pipeline.close();
+
+        assertEquals(events, pipeline.getRowsParsed(RowBatch.Table.EVENT));
+        assertEquals(events, pipeline.getRowsWritten(RowBatch.Table.EVENT));
+        assertEquals(events, count("SELECT COUNT(*) FROM event"));
+        assertEquals(1, count("SELECT COUNT(*) FROM stop"));
+        // the indexes dropped for the load are back
+        assertEquals(7, count("SELECT COUNT(*) FROM sqlite_master WHERE type='index' AND name NOT LIKE 'sqlite_%'"));
+    }
+
+    @Test
+    void roll_back_failed_import() throws IOException, SQLException {
+        IngestPipeline pipeline = new IngestPipeline(db, 1);
+        RowBatch events = pipeline.newBatch(RowBatch.Table.EVENT);
+        events.add(0).add(0).add(100).add(110).endRow();
+        pipeline.put(events);
+        pipeline.finish(RowBatch.Table.EVENT);
+        // stop ids are the primary key, so the second row fails
+        RowBatch stops = pipeline.newBatch(RowBatch.Table.STOP);
+        stops.add(0).add("Stop 0").add(0).add(0).add(1.5).add(2.5).endRow();
+        stops.add(0).add("Stop 0").add(0).add(0).add(1.5).add(2.5).endRow();
+        pipeline.put(stops);
+
+        assertThrows(SQLException.class, pipeline::close);
+        // the events of the finished table are rolled back too
+        assertEquals(0, count("SELECT COUNT(*) FROM event"));
+        assertEquals(0, count("SELECT COUNT(*) FROM stop"));
+    }
+
+    @Test
+    void roll_back_aborted_import() throws IOException, SQLException {
+        IngestPipeline pipeline = new IngestPipeline(db, 1);
+        RowBatch events = pipeline.newBatch(RowBatch.Table.EVENT);
+        events.add(0).add(0).add(100).add(110).endRow();
+        pipeline.put(events);
+        pipeline.finish(RowBatch.Table.EVENT);
+
+        pipeline.abort(new IOException("could not parse stops.txt"));
+        assertEquals(0, count("SELECT COUNT(*) FROM event"));
+        assertThrows(SQLException.class, pipeline::close);
+    }
+
+    @Test
+    void keep_taking_batches_after_runtime_failure() throws SQLException {
+        IngestPipeline pipeline = new IngestPipeline(db, 1);
+        RowBatch broken = new RowBatch(RowBatch.Table.STOP, 1) {
+            @Override
+            void writeTo(SQLiteDatabase.BulkInsert bulkInsert) {
+                throw new IllegalStateException("broken batch");
+            }
+        };
+        broken.add(0).add("Stop 0").add(0).add(0).add(1.5).add(2.5).endRow();
+
+        // with a queue of one batch, the parser would wait forever if the writer had stopped
+        SQLException failure = assertThrows(SQLException.class, () -> assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            pipeline.put(broken);
+            for (int i = 0; i < 10; i++) {
+                RowBatch events = pipeline.newBatch(RowBatch.Table.EVENT);
+                events.add(0).add(0).add(i).add(i + 10).endRow();
+                pipeline.put(events);
+            }
+            pipeline.close();
+        }));
+        assertTrue(failure.getCause() instanceof IllegalStateException);
+        assertEquals(0, count("SELECT COUNT(*) FROM event"));
+    }
+}
@@ -0,0 +1,163 @@
+package com.martasim.datamgmt;
+
+import com.martasim.models.Bus;
+import com.martasim.models.Event;
+import com.martasim.models.Route;
+import com.martasim.models.Stop;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures the latency of single row reads and writes in SQLiteDatabase, with and without reusing prepared
+ * statements, and compares writing a tick of changes row by row with the bulk methods.
+ * Not a JUnit test; run the main method directly.
+ */
+class SQLiteDatabaseBenchmark {
+
+    private static final int ROWS = 2000;
+    private static final int CALLS = 20000;
+    private static final int TICKS = 20;
+
+    public static void main(String[] args) throws IOException, SQLException {
+        File file = File.createTempFile("benchmark", ".db");
+        file.deleteOnExit();
+        SQLiteDatabase db = new SQLiteDatabase(file);
+        db.clear();
+        // otherwise every update waits for the disk, which hides the cost of preparing statements
+        db.executeUpdate("PRAGMA synchronous=OFF");
+
+        Route route = new Route("0", "0", "route 0");
+        db.addRoute(route);
+        Stop[] stops = new Stop[ROWS];
+        Bus[] buses = new Bus[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            stops[i] = new Stop(String.valueOf(i), "stop " + i, 0, 33.7, -84.4);
+            db.addStop(stops[i]);
+            buses[i] = new Bus(String.valueOf(i), route, true, 33.7, -84.4, 0, 10, 0, 10, 0);
+            db.addBus(buses[i]);
+        }
+
+        // the first round of each only warms up the JIT
+        for (int round = 0; round < 2; round++) {
+            for (boolean cacheStatements : new boolean[] {false, true}) {
+                db.cacheStatements = cacheStatements;
+                String label = cacheStatements ? "cached" : "uncached";
+
+                long start = System.nanoTime();
+                for (int i = 0; i < CALLS; i++) {
+                    db.getStop(stops[i % ROWS].getId());
+                }
+                report(round, label, "getStop", start);
+
+                start = System.nanoTime();
+                for (int i = 0; i < CALLS; i++) {
+                    Stop stop = stops[i % ROWS];
+                    stop.setRiders(i);
+                    db.updateStop(stop);
+                }
+                report(round, label, "updateStop", start);
+
+                start = System.nanoTime();
+                for (int i = 0; i < CALLS; i++) {
+                    db.getBus(buses[i % ROWS].getId());
+                }
+                report(round, label, "getBus", start);
+
+                start = System.nanoTime();
+                for (int i = 0; i < CALLS; i++) {
+                    Bus bus = buses[i % ROWS];
+                    bus.setLatitude(33.7 + i * 1e-6);
+                    db.updateBus(bus);
+                }
+                report(round, label, "updateBus", start);
+            }
+        }
+        db.cacheStatements = true;
+
+        // one tick of the simulation changes every bus and stop and records an event per bus, written row by row
+        // with a commit per row, row by row in one transaction, and with the bulk methods
+        List<Bus> busList = Arrays.asList(buses);
+        List<Stop> stopList = Arrays.asList(stops);
+        for (int round = 0; round < 2; round++) {
+            for (String mode : new String[] {"row", "row+tx", "bulk"}) {
+                long start = System.nanoTime();
+                for (int tick = 0; tick < TICKS; tick++) {
+                    List<Event> events = new ArrayList<>(ROWS);
+                    for (int i = 0; i < ROWS; i++) {
+                        buses[i].setPassengers(tick);
+                        stops[i].setRiders(tick);
+                        events.add(new Event(buses[i].getId(), stops[i].getId(), tick, tick + 1));
+                    }
+                    if (mode.equals("bulk")) {
+                        db.inTransaction(database -> {
+                            database.updateBuses(busList);
+                            database.updateStops(stopList);
+                            database.addEvents(events);
+                            database.removeEvents(events);
+                        });
+                    } else if (mode.equals("row+tx")) {
+                        db.inTransaction(database -> writeRows(database, buses, stops, events));
+                    } else {
+                        writeRows(db, buses, stops, events);
+                    }
+                }
+                if (round > 0) {
+                    System.out.printf("%-8s %-10s %6.2f ms/tick%n", mode, "tick",
+                            (System.nanoTime() - start) / 1e6 / TICKS);
+                }
+            }
+        }
+
+        // a tick in which a tenth of the buses pick up passengers, written with only the changed fields,
+        // against writing every field of every bus like before the buses tracked their changes
+        for (int round = 0; round < 2; round++) {
+            for (boolean tracked : new boolean[] {false, true}) {
+                long start = System.nanoTime();
+                for (int t = 0; t < TICKS; t++) {
+                    for (int i = t % 10; i < ROWS; i += 10) {
+                        buses[i].setPassengers(buses[i].getPassengers() + 1);
+                    }
+                    List<Bus> tick = busList;
+                    if (!tracked) {
+                        // new buses have every field marked as changed
+                        tick = new ArrayList<>(ROWS);
+                        for (Bus bus : buses) {
+                            tick.add(new Bus(bus.getId(), route, bus.isOutbound(), bus.getLatitude(), bus.getLongitude(),
+                                    bus.getPassengers(), bus.getPassengerCapacity(), bus.getFuel(), bus.getFuelCapacity(),
+                                    bus.getSpeed()));
+                        }
+                    }
+                    db.updateBuses(tick);
+                }
+                if (round > 0) {
+                    System.out.printf("%-8s %-10s %6.2f ms/tick%n", tracked ? "tracked" : "all", "updateBuses",
+                            (System.nanoTime() - start) / 1e6 / TICKS);
+                }
+            }
+        }
+        db.close();
+    }
+
+    private static void writeRows(Database database, Bus[] buses, Stop[] stops, List<Event> events) throws SQLException {
+        for (int i = 0; i < ROWS; i++) {
+            database.updateBus(buses[i]);
+            database.updateStop(stops[i]);
+            database.addEvent(events.get(i));
+        }
+        for (Event event : events) {
+            database.removeEvent(event);
+        }
+    }
+
+    private static void report(int round, String label, String method, long start) {
+        if (round > 0) {
+            System.out.printf("%-8s %-10s %6.2f us/call%n", label, method,
+                    (System.nanoTime() - start) / 1000.0 / CALLS);
+        }
+    }
+}
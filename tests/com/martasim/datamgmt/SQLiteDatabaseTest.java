@@ -8,10 +8,17 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -102,6 +109,141 @@ class SQLiteDatabaseTest {
         assertTrue(events.contains(event));
     }
 
+    @Test
+    void bulk_insert() throws SQLException {
+        Stop A = new Stop("0", "O'Neil St", 0, 1.5, 2.5);
+        Stop B = new Stop("1", "Stop 1", 5, 0, 0);
+
+        IdDictionary stopIds = new IdDictionary();
+        db.beginBulkLoad();
+        db.inTransaction(database -> {
+            try (SQLiteDatabase.BulkInsert insert = db.bulkInsert("stop", 6)) {
+                insert.addRow(stopIds.add("0"), "O'Neil St", 0, 0, 1.5, 2.5);
+                insert.setInt(1, stopIds.add("1")).setString(2, "Stop 1").setInt(3, 5).setInt(4, 0)
+                        .setDouble(5, 0).setDouble(6, 0).addRow();
+            }
+        });
+        db.endBulkLoad();
+        db.saveIds(SQLiteDatabase.STOP_IDS, stopIds);
+
+        assertEquals(new HashSet<>(Arrays.asList(A, B)), new HashSet<>(db.getAllStops()));
+    }
+
+    @Test
+    void roll_back_every_bulk_insert_of_a_transaction() throws SQLException {
+        Stop A = new Stop("0", "Stop 0", 0, 0, 0);
+        db.addStop(A);
+
+        IdDictionary stopIds = new IdDictionary();
+        stopIds.add("0");
+        assertThrows(SQLException.class, () -> db.inTransaction(database -> {
+            SQLiteDatabase.BulkInsert stops = db.bulkInsert("stop", 6);
+            SQLiteDatabase.BulkInsert events = db.bulkInsert("event", 4);
+            stops.addRow(stopIds.add("1"), "Stop 1", 0, 0, 0, 0);
+            events.addRow(0, 0, 100, 110);
+            // closing one table's insert doesn't commit the rows of the other one
+            stops.close();
+            events.close();
+            throw new SQLException("import failed");
+        }));
+
+        assertEquals(Collections.singletonList(A), new ArrayList<>(db.getAllStops()));
+        assertTrue(db.getAllEvents().isEmpty());
+    }
+
+    @Test
+    void merge_staging_table() throws SQLException {
+        Stop A = new Stop("0", "Stop 0", 0, 1.5, 2.5);
+        Stop B = new Stop("1", "Stop 1", 0, 0, 0);
+        Stop C = new Stop("2", "Stop 2", 0, 3, 3);
+        Stop renamedB = new Stop("1", "Renamed 1", 0, 0, 0);
+        db.addStop(A);
+        db.addStop(B);
+        db.addStop(C);
+
+        db.createStagingTable("stop");
+        db.executeUpdate("INSERT INTO stop" + SQLiteDatabase.STAGING_SUFFIX + " SELECT * FROM stop");
+        db.executeUpdate("UPDATE stop" + SQLiteDatabase.STAGING_SUFFIX + " SET name='Renamed 1' WHERE name='Stop 1'");
+        db.removeStop(C);
+
+        // B is replaced by renamedB and C is added, A stays as it is
+        assertEquals(3, db.mergeStagingTable("stop"));
+        assertEquals(new HashSet<>(Arrays.asList(A, renamedB, C)), new HashSet<>(db.getAllStops()));
+    }
+
+    @Test
+    void merge_staging_table_with_repeated_rows() throws SQLException {
+        Event event = new Event("0", "0", 100, 110);
+        Event other = new Event("0", "1", 200, 210);
+        db.addEvent(event);
+        db.addEvent(other);
+        db.addEvent(other);
+
+        db.createStagingTable("event");
+        String staging = "event" + SQLiteDatabase.STAGING_SUFFIX;
+        db.executeUpdate("INSERT INTO " + staging + " SELECT * FROM event WHERE arrivalTime=100");
+        db.executeUpdate("INSERT INTO " + staging + " SELECT * FROM event WHERE arrivalTime=100");
+        db.executeUpdate("INSERT INTO " + staging + " SELECT * FROM event WHERE arrivalTime=200 LIMIT 1");
+
+        // event is now there twice and other only once, no row is lost because it is repeated
+        assertEquals(2, db.mergeStagingTable("event"));
+        List<Event> events = new ArrayList<>(db.getAllEvents());
+        assertEquals(3, events.size());
+        assertEquals(2, events.stream().filter(event::equals).count());
+        assertEquals(1, events.stream().filter(other::equals).count());
+    }
+
+    private String queryPlan(String sql) throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        try (Statement statement = db.connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("EXPLAIN QUERY PLAN " + sql)) {
+            while (resultSet.next()) {
+                plan.append(resultSet.getString("detail")).append('\n');
+            }
+        }
+        return plan.toString();
+    }
+
+    @Test
+    void queries_use_indexes() throws SQLException {
+        String eventsAtTime = "SELECT * FROM event WHERE arrivalTime=1";
+        String routeStops = "SELECT stopId FROM routeToStop WHERE routeId=1 ORDER BY stopIndex";
+        assertTrue(queryPlan(eventsAtTime).contains("COVERING INDEX eventArrivalTime"));
+        assertTrue(queryPlan(routeStops).contains("COVERING INDEX routeToStopRouteId"));
+
+        db.dropIndexes();
+        assertFalse(queryPlan(eventsAtTime).contains("INDEX"));
+
+        db.createIndexes();
+        db.reindex();
+        assertTrue(queryPlan(eventsAtTime).contains("COVERING INDEX eventArrivalTime"));
+    }
+
+    @Test
+    void roll_back_transactions() throws SQLException {
+        Stop A = new Stop("0", "Stop 0", 0, 0, 0);
+        Stop B = new Stop("1", "Stop 1", 0, 1, 1);
+        Stop C = new Stop("2", "Stop 2", 0, 2, 2);
+        db.addStop(A);
+
+        assertThrows(SQLException.class, () -> db.inTransaction(database -> {
+            database.addStop(B);
+            throw new SQLException("failed");
+        }));
+        assertNull(db.getStop("1"));
+
+        db.inTransaction(database -> {
+            database.addStop(C);
+            // only the nested transaction is rolled back
+            assertThrows(IllegalStateException.class, () -> database.inTransaction(nested -> {
+                nested.removeStop(A);
+                throw new IllegalStateException();
+            }));
+        });
+        assertEquals(new HashSet<>(Arrays.asList(A, C)), new HashSet<>(db.getAllStops()));
+        assertEquals(2, db.getIds(SQLiteDatabase.STOP_IDS).size());
+    }
+
     @Test
     void get_route() throws SQLException {
         Route route = new Route("1", "0", "route 0");
@@ -127,6 +269,88 @@ class SQLiteDatabaseTest {
         assertEquals(busA, db.getBus(busA.getId()));
     }
 
+    @Test
+    void bulk_changes() throws Exception {
+        Route route = new Route("1", "1", "Route 1");
+        db.addRoute(route);
+        List<Bus> buses = new ArrayList<>();
+        List<Stop> stops = new ArrayList<>();
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            buses.add(new Bus(String.valueOf(i), route, true, 1, 1, 2, 10, 10, 20, 40));
+            stops.add(new Stop(String.valueOf(i), "Stop " + i, 0, i, i));
+            events.add(new Event(String.valueOf(i), String.valueOf(i), i, i + 1));
+            db.addBus(buses.get(i));
+            db.addStop(stops.get(i));
+        }
+
+        db.addEvents(events);
+        assertEquals(new HashSet<>(events), new HashSet<>(db.getAllEvents()));
+        db.removeEvents(events.subList(0, 2));
+        assertEquals(events.subList(2, 3), new ArrayList<>(db.getAllEvents()));
+
+        for (int i = 0; i < 3; i++) {
+            buses.get(i).setPassengers(i);
+            stops.get(i).setRiders(i);
+        }
+        db.updateBuses(buses);
+        db.updateStops(stops);
+        assertEquals(new HashSet<>(buses), new HashSet<>(db.getAllBuses()));
+        assertEquals(new HashSet<>(stops), new HashSet<>(db.getAllStops()));
+    }
+
+    @Test
+    void update_again_after_rolled_back_update() throws Exception {
+        Route route = new Route("1", "1", "Route 1");
+        db.addRoute(route);
+        Bus bus = new Bus("0", route, true, 1, 1, 2, 10, 10, 20, 40);
+        Stop stop = new Stop("0", "Stop 0", 0, 0, 0);
+        db.addBus(bus);
+        db.addStop(stop);
+
+        assertThrows(SQLException.class, () -> db.inTransaction(database -> {
+            bus.setPassengers(7);
+            database.updateBus(bus);
+            database.inTransaction(nested -> {
+                stop.setRiders(3);
+                nested.updateStops(Collections.singletonList(stop));
+            });
+            throw new SQLException("failed");
+        }));
+        assertEquals(2, db.getBus("0").getPassengers());
+
+        // the rolled back changes are still marked, so updating again writes them
+        db.updateBus(bus);
+        db.updateStop(stop);
+        assertEquals(7, db.getBus("0").getPassengers());
+        assertEquals(3, db.getStop("0").getRiders());
+    }
+
+    @Test
+    void update_only_changed_fields() throws Exception {
+        Route route = new Route("1", "1", "Route 1");
+        db.addRoute(route);
+        db.addBus(new Bus("0", route, true, 1, 1, 2, 10, 10, 20, 40));
+        db.addStop(new Stop("0", "Stop 0", 0, 0, 0));
+        Bus busA = db.getBus("0");
+        Bus busB = db.getBus("0");
+        Stop stop = db.getStop("0");
+
+        busA.setPassengers(5);
+        busB.setFuel(5);
+        db.updateBus(busA);
+        db.updateBus(busB);
+        // each update only wrote its own change, so neither undid the other
+        assertEquals(5, db.getBus("0").getPassengers());
+        assertEquals(5, db.getBus("0").getFuel());
+
+        db.updateBus(busA);
+        db.updateStop(stop);
+        db.updateBuses(Arrays.asList(busA, busB));
+        db.updateStops(Arrays.asList(stop));
+        assertEquals(5, db.getSkippedWrites());
+    }
+
     @Test
     void update_route() throws SQLException {
         Route routeA = new Route("1", "1", "Route 1");
@@ -370,6 +594,32 @@ class SQLiteDatabaseTest {
         assertEquals(routes, new HashSet<>(db.getAllRoutes()));
     }
 
+    @Test
+    void read_all_buses_share_routes_and_stops() throws Exception {
+        Stop shared = new Stop("0", "Five Points", 0, 0, 0);
+        Stop other = new Stop("1", "Peachtree Center", 0, 1, 1);
+        Route A = new Route("0", "0", "0");
+        Route B = new Route("1", "1", "1");
+        db.addStop(shared);
+        db.addStop(other);
+        db.addRoute(A);
+        db.addRoute(B);
+        db.extendRoute(A, shared);
+        db.extendRoute(A, other);
+        db.extendRoute(B, shared);
+        db.addBus(new Bus("0", A, true, 0, 0, 0, 0, 0, 0, 0));
+        db.addBus(new Bus("1", A, true, 0, 0, 0, 0, 0, 0, 0));
+        db.addBus(new Bus("2", B, true, 0, 0, 0, 0, 0, 0, 0));
+        db.addBus(new Bus("3", null, true, 0, 0, 0, 0, 0, 0, 0));
+
+        Bus[] buses = db.getAllBuses().toArray(new Bus[0]);
+        assertEquals(A, buses[0].getRoute());
+        assertEquals(Arrays.asList(shared, other), buses[0].getRoute().getStops());
+        assertSame(buses[0].getRoute(), buses[1].getRoute());
+        assertSame(buses[0].getRoute().getStops().get(0), buses[2].getRoute().getStops().get(0));
+        assertNull(buses[3].getRoute());
+    }
+
     @Test
     void read_all_stops() throws SQLException {
         Stop A = new Stop("0", "Stop 0", 0, 0, 0);
@@ -401,6 +651,57 @@ class SQLiteDatabaseTest {
         assertEquals(events, new HashSet<>(db.getAllEvents()));
     }
 
+    @Test
+    void read_events_in_time_range() throws SQLException {
+        Route route = new Route("0", "0", "route 0");
+        db.addRoute(route);
+        db.addBus(new Bus("0", route, true, 0, 0, 0, 0, 0, 0, 0));
+        db.addBus(new Bus("1", null, true, 0, 0, 0, 0, 0, 0, 0));
+        Event A = new Event("0", "0", 10, 10);
+        Event B = new Event("1", "0", 20, 25);
+        Event C = new Event("0", "1", 20, 20);
+        Event D = new Event("1", "1", 30, 30);
+        Event E = new Event("0", "2", 40, 40);
+        for (Event event : Arrays.asList(E, D, C, B, A)) {
+            db.addEvent(event);
+        }
+
+        assertEquals(Arrays.asList(A, C, B, D), db.getAllEventsWithArrivalTime(10, 40));
+        assertEquals(Arrays.asList(B, D), db.getEventPage(20, 40, null, null, C, 10));
+        assertEquals(Arrays.asList(C, D), db.getEventPage(0, 100, "1", null, null, 10));
+        assertEquals(Arrays.asList(A, C, E), db.getEventPage(0, 100, null, "0", null, 10));
+
+        List<Event> pages = new ArrayList<>();
+        List<Event> page = db.getEventPage(0, 100, null, null, null, 2);
+        while (!page.isEmpty()) {
+            pages.addAll(page);
+            page = db.getEventPage(0, 100, null, null, page.get(page.size() - 1), 2);
+        }
+        assertEquals(Arrays.asList(A, C, B, D, E), pages);
+    }
+
+    @Test
+    void stream_all_events() throws SQLException {
+        Event A = new Event("0", "0", 0, 0);
+        Event B = new Event("1", "2", 3, 4);
+        Event C = new Event("2", "5", 5, 5);
+        db.addEvent(A);
+        db.addEvent(B);
+        db.addEvent(C);
+
+        try (Stream<Event> events = db.streamAllEvents()) {
+            assertEquals(new HashSet<>(Arrays.asList(A, B, C)), events.collect(Collectors.toSet()));
+        }
+        try (Stream<Event> events = db.streamAllEvents()) {
+            assertEquals(1, events.limit(1).count());
+            // other queries can run while the stream is open
+            assertEquals(3, db.getAllEvents().size());
+        }
+        // a stream that was closed early no longer keeps the table from being dropped
+        db.clear();
+        assertEquals(0, db.streamAllEvents().count());
+    }
+
     @Test
     void read_all_events_arrival_time() throws SQLException {
         Event A = new Event("0", "0", 0, 0);
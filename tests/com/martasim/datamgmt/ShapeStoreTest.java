@@ -0,0 +1,73 @@
+package com.martasim.datamgmt;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShapeStoreTest {
+
+    private static ShapeStore read(String shapes) throws IOException {
+        return ShapeStore.read(new ByteArrayInputStream(shapes.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void read_points_in_sequence_order() throws IOException {
+        ShapeStore shapes = read(
+                "shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence\n" +
+                "A,0.0,0.01,2\n" +
+                "B,33.7,-84.5,1\n" +
+                "A,0.0,0.0,1\n" +
+                "A,0.01,0.01,3\n"
+        );
+
+        assertEquals(2, shapes.size());
+        assertEquals(-1, shapes.indexOf("C"));
+
+        int a = shapes.indexOf("A");
+        assertEquals(3, shapes.getPointCount(a));
+        assertEquals(0.0, shapes.getLatitude(a, 0));
+        assertEquals(0.0, shapes.getLongitude(a, 0));
+        assertEquals(0.01, shapes.getLongitude(a, 1));
+        assertEquals(0.01, shapes.getLatitude(a, 2));
+
+        int b = shapes.indexOf("B");
+        assertEquals(1, shapes.getPointCount(b));
+        assertEquals(33.7, shapes.getLatitude(b, 0));
+        assertEquals(0.0, shapes.getLength(b));
+    }
+
+    @Test
+    void locations_along_shape() throws IOException {
+        ShapeStore shapes = read(
+                "shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence\n" +
+                "A,0.0,0.0,1\n" +
+                "A,0.0,0.01,2\n" +
+                "A,0.01,0.01,3\n"
+        );
+        int a = shapes.indexOf("A");
+
+        // 0.01 degrees along the equator or a meridian is about 1112 meters
+        double segment = shapes.getDistance(a, 1);
+        assertEquals(1112, segment, 1);
+        assertEquals(2 * segment, shapes.getLength(a), 1);
+
+        double[] location = new double[2];
+        shapes.getLocationAt(a, segment / 2, location);
+        assertArrayEquals(new double[] {0.0, 0.005}, location, 1e-9);
+        shapes.getLocationAt(a, segment * 1.5, location);
+        assertArrayEquals(new double[] {0.005, 0.01}, location, 1e-6);
+        shapes.getLocationAt(a, -1, location);
+        assertArrayEquals(new double[] {0.0, 0.0}, location);
+        shapes.getLocationAt(a, 1e9, location);
+        assertArrayEquals(new double[] {0.01, 0.01}, location);
+
+        assertEquals(0.0, shapes.getMinLatitude(a));
+        assertEquals(0.0, shapes.getMinLongitude(a));
+        assertEquals(0.01, shapes.getMaxLatitude(a));
+        assertEquals(0.01, shapes.getMaxLongitude(a));
+    }
+}
@@ -0,0 +1,72 @@
+package com.martasim.datamgmt;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A small GTFS feed for tests.
+ *
+ * Route 1 runs trip W1 on weekdays and trip S1 on Saturdays, route 2 only runs trip S2 on Saturdays.
+ * Nothing runs on Sundays.
+ */
+class TestFeed {
+
+    static Map<String, String> files() {
+        Map<String, String> files = new LinkedHashMap<>();
+        files.put("calendar.txt",
+                "service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date\n" +
+                "WEEKDAY,1,1,1,1,1,0,0,20180101,20181231\n" +
+                "SATURDAY,0,0,0,0,0,1,0,20180101,20181231\n");
+        files.put("routes.txt",
+                "route_id,route_short_name,route_long_name\n" +
+                "1,1,Route One\n" +
+                "2,2,Route Two\n");
+        files.put("trips.txt",
+                "route_id,service_id,trip_id,direction_id,shape_id\n" +
+                "1,WEEKDAY,W1,0,10\n" +
+                "1,SATURDAY,S1,0,10\n" +
+                "2,SATURDAY,S2,1,20\n");
+        files.put("stops.txt",
+                "stop_id,stop_name,stop_lat,stop_lon\n" +
+                "A,Stop A,33.75,-84.41\n" +
+                "B,Stop B,33.76,-84.40\n" +
+                "C,Stop C,33.77,-84.39\n");
+        files.put("stop_times.txt",
+                "trip_id,arrival_time,departure_time,stop_id,stop_sequence\n" +
+                "W1,07:00:00,07:00:00,A,1\n" +
+                "W1,07:10:00,07:11:00,B,2\n" +
+                "S1,09:00:00,09:00:00,A,1\n" +
+                "S1,09:10:00,09:10:00,B,2\n" +
+                "S2,10:00:00,10:00:00,B,1\n" +
+                "S2,10:20:00,10:20:00,C,2\n");
+        files.put("shapes.txt",
+                "shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence\n" +
+                "10,33.75,-84.41,1\n" +
+                "10,33.76,-84.40,2\n" +
+                "20,33.76,-84.40,1\n" +
+                "20,33.77,-84.39,2\n");
+        return files;
+    }
+
+    /**
+     * @param zip file to write the feed to
+     * @param files name and contents of each file in the feed
+     * @return the zip file
+     */
+    static File write(File zip, Map<String, String> files) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            for (Map.Entry<String, String> file : files.entrySet()) {
+                out.putNextEntry(new ZipEntry(file.getKey()));
+                out.write(file.getValue().getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+        return zip;
+    }
+}
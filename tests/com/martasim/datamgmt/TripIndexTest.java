@@ -0,0 +1,60 @@
+package com.martasim.datamgmt;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TripIndexTest {
+
+    private static TripIndex read(String trips) throws IOException {
+        return TripIndex.read(new ByteArrayInputStream(trips.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void look_up_trips_by_id() throws IOException {
+        TripIndex trips = read(
+                "route_id,service_id,trip_id,direction_id,shape_id\n" +
+                "R1,weekday,T1,0,S1\n" +
+                "R1,weekday,T2,1,S2\n" +
+                "R2,saturday,T3,1,S1\n");
+
+        assertEquals(3, trips.size());
+        int trip = trips.indexOf(new StringBuilder("T2"));
+        assertEquals("T2", trips.getTripId(trip));
+        assertEquals("R1", trips.getRouteId(trip));
+        assertEquals("weekday", trips.getServiceId(trip));
+        assertEquals("S2", trips.getShapeId(trip));
+        assertFalse(trips.isOutbound(trip));
+        assertTrue(trips.isOutbound(trips.indexOf("T1")));
+        assertEquals(-1, trips.indexOf("T4"));
+    }
+
+    @Test
+    void read_trips_without_optional_columns() throws IOException {
+        TripIndex trips = read(
+                "route_id,service_id,trip_id\n" +
+                "R1,weekday,T1\n" +
+                "R2,weekday,T2\n");
+
+        assertEquals(2, trips.size());
+        int trip = trips.indexOf("T2");
+        assertEquals("R2", trips.getRouteId(trip));
+        assertEquals("", trips.getShapeId(trip));
+        assertTrue(trips.isOutbound(trip));
+    }
+
+    @Test
+    void repeated_trip_replaces_earlier_row() throws IOException {
+        TripIndex trips = read(
+                "route_id,service_id,trip_id\n" +
+                "R1,weekday,T1\n" +
+                "R2,saturday,T1\n");
+
+        assertEquals(1, trips.size());
+        assertEquals("R2", trips.getRouteId(trips.indexOf("T1")));
+    }
+}
@@ -0,0 +1,158 @@
+package com.martasim.datamgmt;
+
+import com.martasim.models.Bus;
+import com.martasim.models.Route;
+import com.martasim.models.Stop;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteBehindDatabaseTest {
+
+    SQLiteDatabase db;
+
+    @BeforeEach
+    void setup() throws SQLException {
+        db = new SQLiteDatabase();
+        db.clear();
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        db.close();
+    }
+
+    @Test
+    void coalesce_updates_until_flush() throws SQLException {
+        Route route = new Route("0", "0", "route 0");
+        Bus bus = new Bus("0", route, true, 0, 0, 0, 10, 10, 20, 40);
+        Stop stop = new Stop("0", "Stop 0", 0, 0, 0);
+        db.addRoute(route);
+        db.addBus(bus);
+        db.addStop(stop);
+        WriteBehindDatabase writeBehind = new WriteBehindDatabase(db);
+
+        for (int passengers = 1; passengers <= 3; passengers++) {
+            bus.setPassengers(passengers);
+            writeBehind.updateBus(bus);
+        }
+        stop.setRiders(5);
+        writeBehind.updateStop(stop);
+
+        assertEquals(2, writeBehind.getPendingWrites());
+        assertEquals(2, writeBehind.getCoalescedWrites());
+        assertEquals(0, db.getBus("0").getPassengers());
+        assertEquals(3, writeBehind.getBus("0").getPassengers());
+        assertEquals(stop, writeBehind.getStop("0"));
+
+        writeBehind.flush();
+        assertEquals(0, writeBehind.getPendingWrites());
+        assertEquals(bus, db.getBus("0"));
+        assertEquals(stop, db.getStop("0"));
+    }
+
+    @Test
+    void write_only_changed_fields() throws SQLException {
+        Route route = new Route("0", "0", "route 0");
+        db.addRoute(route);
+        db.addBus(new Bus("0", route, true, 0, 0, 0, 10, 10, 20, 40));
+        Bus bus = db.getBus("0");
+        WriteBehindDatabase writeBehind = new WriteBehindDatabase(db);
+
+        bus.setPassengers(5);
+        writeBehind.updateBus(bus);
+        bus.setFuel(3);
+        writeBehind.updateBus(bus);
+        // changed behind the held back updates, which must not write their old speed over it
+        Bus other = db.getBus("0");
+        other.setSpeed(99);
+        db.updateBus(other);
+
+        writeBehind.flush();
+        Bus stored = db.getBus("0");
+        assertEquals(5, stored.getPassengers());
+        assertEquals(3, stored.getFuel());
+        assertEquals(99, stored.getSpeed());
+
+        long skippedWrites = db.getSkippedWrites();
+        writeBehind.updateBus(bus);
+        writeBehind.flush();
+        assertEquals(skippedWrites + 1, db.getSkippedWrites());
+    }
+
+    @Test
+    void keep_changed_fields_when_flush_fails() throws SQLException {
+        Route route = new Route("0", "0", "route 0");
+        db.addRoute(route);
+        db.addBus(new Bus("0", route, true, 0, 0, 0, 10, 10, 20, 40));
+        db.addStop(new Stop("0", "Stop 0", 0, 0, 0));
+        Bus bus = db.getBus("0");
+        Stop stop = db.getStop("0");
+        boolean[] fail = {true};
+        // can't roll back and fails after the bus is written, so the failed flush already marked the held back
+        // bus clean
+        Database failing = new WriteBehindDatabase(db, WriteBehindDatabase.Durability.WRITE_THROUGH, 0) {
+            @Override
+            public synchronized void inTransaction(Transaction transaction) throws SQLException {
+                transaction.run(this);
+            }
+
+            @Override
+            public void updateStop(Stop stop) throws SQLException {
+                if (fail[0]) {
+                    throw new SQLException("failed");
+                }
+                super.updateStop(stop);
+            }
+        };
+        WriteBehindDatabase writeBehind = new WriteBehindDatabase(failing);
+
+        bus.setPassengers(5);
+        writeBehind.updateBus(bus);
+        stop.setRiders(3);
+        writeBehind.updateStop(stop);
+        assertThrows(SQLException.class, writeBehind::flush);
+        assertEquals(2, writeBehind.getPendingWrites());
+        assertEquals(Bus.PASSENGERS, writeBehind.getBus("0").getDirtyFields());
+        assertEquals(Stop.RIDERS, writeBehind.getStop("0").getDirtyFields() & Stop.RIDERS);
+
+        fail[0] = false;
+        writeBehind.flush();
+        assertEquals(5, db.getBus("0").getPassengers());
+        assertEquals(3, db.getStop("0").getRiders());
+    }
+
+    @Test
+    void flush_before_other_reads() throws SQLException {
+        Stop stop = new Stop("0", "Stop 0", 0, 0, 0);
+        db.addStop(stop);
+        WriteBehindDatabase writeBehind = new WriteBehindDatabase(db);
+
+        stop.setName("Renamed 0");
+        writeBehind.updateStop(stop);
+        assertEquals(Collections.singletonList(stop), writeBehind.getAllStops());
+        assertEquals(0, writeBehind.getPendingWrites());
+    }
+
+    @Test
+    void flush_on_timer() throws Exception {
+        Stop stop = new Stop("0", "Stop 0", 0, 0, 0);
+        db.addStop(stop);
+        WriteBehindDatabase writeBehind = new WriteBehindDatabase(db, WriteBehindDatabase.Durability.TIMED, 10);
+
+        stop.setRiders(5);
+        writeBehind.updateStop(stop);
+        for (int i = 0; i < 200 && writeBehind.getPendingWrites() > 0; i++) {
+            Thread.sleep(10);
+        }
+        synchronized (writeBehind) {
+            assertEquals(stop, db.getStop("0"));
+        }
+        writeBehind.close();
+    }
+}
@@ -55,4 +55,21 @@ class BusTest {
         assertEquals(1, b.getCurrentStopIndex());
         assertEquals(secondStop, b.getCurrentStop());
     }
+
+    @Test
+    void track_changed_fields() {
+        Bus bus = new Bus("0", null, true, 0, 0, 0, 0, 0, 0, 0);
+        assertEquals(Bus.ALL_FIELDS, bus.getDirtyFields());
+        Bus clean = new Bus("0", null, true, 0, 0, 0, 0, 0, 0, 0);
+        clean.markClean();
+        assertEquals(0, clean.getDirtyFields());
+        assertEquals(bus, clean);
+        assertEquals(bus.hashCode(), clean.hashCode());
+
+        clean.setPassengers(0);
+        assertEquals(0, clean.getDirtyFields());
+        clean.setPassengers(5);
+        clean.setFuel(1);
+        assertEquals(Bus.PASSENGERS | Bus.FUEL, clean.getDirtyFields());
+    }
 }